@@ -18,6 +18,24 @@ LOCAL_CERTIFICATE := platform
 LOCAL_MODULE_TAGS := optional
 LOCAL_PRIVILEGED_MODULE := true
 
+# Compile the whole package ahead of time: every tile runs on the first pulldown
+# after boot, and this build has no profile guided dexpreopt to pick the hot code
+LOCAL_DEX_PREOPT := true
+LOCAL_DEX_PREOPT_FLAGS := --compiler-filter=speed
+
 LOCAL_PACKAGE_NAME := CustomTiles
 
 include $(BUILD_PACKAGE)
+
+# Framework-independent tile state, buildable for the host JVM
+include $(CLEAR_VARS)
+
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src/org/lineageos/customtiles/core)
+
+LOCAL_MODULE := CustomTilesCore
+LOCAL_MODULE_TAGS := optional
+
+include $(BUILD_HOST_JAVA_LIBRARY)
+
+include $(call all-makefiles-under, $(LOCAL_PATH))
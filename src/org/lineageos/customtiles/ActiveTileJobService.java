@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.net.Uri;
+import android.service.quicksettings.TileService;
+import android.util.ArrayMap;
+
+/**
+ * Keeps active tiles up to date. SystemUI only binds an active tile when the tile
+ * asks for it, so this job is triggered by the settings those tiles show and asks
+ * the tile of each changed setting for a listening pass. The job scheduler watches
+ * the settings, so nothing has to stay alive in this process in between.
+ *
+ * Only tiles whose whole state is a setting can be active; anything else has no
+ * way to notice a change while the process is not running.
+ */
+public class ActiveTileJobService extends JobService {
+
+    private static final int JOB_ID = 1;
+
+    // Coalesce a burst of writes into one run
+    private static final long TRIGGER_DELAY_MS = 100;
+    private static final long TRIGGER_MAX_DELAY_MS = 1000;
+
+    /**
+     * (Re)schedules the job for the next change of an active tile's setting.
+     */
+    public static void schedule(Context context) {
+        final ArrayMap<Uri, Class<?>> tiles = getToggleTiles(context);
+        if (tiles.isEmpty()) {
+            return;
+        }
+        final JobInfo.Builder builder = new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, ActiveTileJobService.class))
+                .setTriggerContentUpdateDelay(TRIGGER_DELAY_MS)
+                .setTriggerContentMaxDelay(TRIGGER_MAX_DELAY_MS);
+        for (int i = 0; i < tiles.size(); i++) {
+            builder.addTriggerContentUri(new JobInfo.TriggerContentUri(tiles.keyAt(i), 0));
+        }
+        context.getSystemService(JobScheduler.class).schedule(builder.build());
+    }
+
+    /**
+     * Schedules the job unless it is already pending or running. Replacing a
+     * running job would stop it, so this is what process start uses.
+     */
+    public static void ensureScheduled(Context context) {
+        if (context.getSystemService(JobScheduler.class).getPendingJob(JOB_ID) == null) {
+            schedule(context);
+        }
+    }
+
+    /**
+     * Asks SystemUI to bind every active tile once so they publish their state.
+     */
+    public static void requestAll(Context context) {
+        for (TileRegistry.Entry tile : TileRegistry.TILES) {
+            if (tile.mActive) {
+                requestListeningState(context, tile.mTileClass);
+            }
+        }
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        final Uri[] uris = params.getTriggeredContentUris();
+        if (uris == null) {
+            // Too many changes to be reported one by one
+            requestAll(this);
+        } else {
+            final ArrayMap<Uri, Class<?>> tiles = getToggleTiles(this);
+            for (Uri uri : uris) {
+                final Class<?> cls = tiles.get(uri);
+                if (cls != null) {
+                    requestListeningState(this, cls);
+                }
+            }
+        }
+        // Content triggers fire once, watch for the next change
+        schedule(this);
+        return false;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        return false;
+    }
+
+    private static ArrayMap<Uri, Class<?>> getToggleTiles(Context context) {
+        final ArrayMap<Uri, Class<?>> tiles = new ArrayMap<>();
+        for (TileRegistry.Entry tile : TileRegistry.TILES) {
+            if (!tile.mActive || !SettingsToggleTile.class.isAssignableFrom(tile.mTileClass)) {
+                continue;
+            }
+            final SettingsToggleSpec spec = SettingsToggleSpec.get(context,
+                    new ComponentName(context, tile.mTileClass));
+            if (spec != null) {
+                tiles.put(spec.mKey.mUri, tile.mTileClass);
+            }
+        }
+        return tiles;
+    }
+
+    private static void requestListeningState(Context context, Class<?> cls) {
+        TileService.requestListeningState(context, new ComponentName(context, cls));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.BackgroundThread;
+
+import org.lineageos.customtiles.core.ProcFileReader;
+import org.lineageos.customtiles.core.TcpSocketTable;
+
+import java.io.IOException;
+
+/**
+ * Counts the clients connected to the adb port by polling the kernel socket
+ * tables on the background thread while started. The tables are read and parsed
+ * without allocating, and the callback runs on the main thread only when the
+ * count changes.
+ */
+public class AdbClientTracker {
+    private static final String TAG = "AdbClientTracker";
+
+    public interface Callback {
+        void onClientCountChanged(int count);
+    }
+
+    private static final long POLL_INTERVAL_MS = 2000;
+
+    private static final String[] SOCKET_TABLES = {
+        "/proc/net/tcp",
+        "/proc/net/tcp6",
+    };
+
+    private static AdbClientTracker sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Handler mBgHandler = BackgroundThread.getHandler();
+
+    // Only touched on the background thread. A table that fails to read, like
+    // tcp6 without IPv6, is skipped until the next start.
+    private final ProcFileReader[] mReaders = new ProcFileReader[SOCKET_TABLES.length];
+    private final boolean[] mUnavailable = new boolean[SOCKET_TABLES.length];
+
+    private Callback mCallback;
+    private volatile int mPort;
+    private volatile boolean mRunning;
+    private volatile int mClientCount;
+
+    private final Runnable mPollRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+            final int count = countClients(mPort);
+            if (count != mClientCount) {
+                mClientCount = count;
+                mHandler.removeCallbacks(mDispatchRunnable);
+                mHandler.post(mDispatchRunnable);
+            }
+            mBgHandler.postDelayed(this, POLL_INTERVAL_MS);
+        }
+    };
+
+    private final Runnable mCloseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = 0; i < mReaders.length; i++) {
+                try {
+                    mReaders[i].close();
+                } catch (IOException e) {
+                    // Nothing to do, the table is opened again on the next start
+                }
+                mUnavailable[i] = false;
+            }
+        }
+    };
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mCallback != null) {
+                mCallback.onClientCountChanged(mClientCount);
+            }
+        }
+    };
+
+    private AdbClientTracker() {
+        for (int i = 0; i < SOCKET_TABLES.length; i++) {
+            mReaders[i] = new ProcFileReader(SOCKET_TABLES[i]);
+        }
+    }
+
+    public static synchronized AdbClientTracker get() {
+        if (sInstance == null) {
+            sInstance = new AdbClientTracker();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts polling for clients of {@code port}, or switches to it if already
+     * started. Must be called on the main thread.
+     */
+    public void start(int port, Callback callback) {
+        mCallback = callback;
+        if (mRunning && port == mPort) {
+            return;
+        }
+        mPort = port;
+        mRunning = true;
+        mBgHandler.removeCallbacks(mPollRunnable);
+        mBgHandler.post(mPollRunnable);
+    }
+
+    public void stop() {
+        mCallback = null;
+        mHandler.removeCallbacks(mDispatchRunnable);
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        mBgHandler.removeCallbacks(mPollRunnable);
+        mBgHandler.post(mCloseRunnable);
+    }
+
+    /**
+     * Returns the last count. It is kept after {@link #stop()} so a new listening
+     * session can show it until the first poll.
+     */
+    public int getClientCount() {
+        return mClientCount;
+    }
+
+    @VisibleForTesting
+    int getListenerCount() {
+        return mRunning ? 1 : 0;
+    }
+
+    private int countClients(int port) {
+        int count = 0;
+        for (int i = 0; i < mReaders.length; i++) {
+            if (mUnavailable[i]) {
+                continue;
+            }
+            try {
+                count += TcpSocketTable.countSockets(mReaders[i].read(), port,
+                        TcpSocketTable.STATE_ESTABLISHED);
+            } catch (IOException e) {
+                Log.w(TAG, "Unable to read " + SOCKET_TABLES[i], e);
+                mUnavailable[i] = true;
+            }
+        }
+        return count;
+    }
+}
@@ -15,97 +15,131 @@
  */
 package org.lineageos.customtiles;
 
-import android.content.Context;
-import android.database.ContentObserver;
-import android.graphics.drawable.Icon;
-import android.net.NetworkUtils;
-import android.net.Uri;
-import android.net.wifi.WifiInfo;
-import android.net.wifi.WifiManager;
-import android.os.Handler;
-import android.os.UserHandle;
-import android.provider.Settings;
+import android.content.ComponentName;
 import android.service.quicksettings.Tile;
 import android.service.quicksettings.TileService;
 
-import java.net.InetAddress;
+import org.lineageos.customtiles.core.AdbNetworkState;
 
-import cyanogenmod.providers.CMSettings;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.util.List;
 
 public class AdbOverNetworkTile extends TileService {
 
-    private ContentObserver mObserver = new ContentObserver(new Handler()) {
+    private static final TileStats sStats = new TileStats("AdbOverNetworkTile");
+
+    private final TileRenderer mRenderer = new TileRenderer(this, sStats);
+    private SettingsCache mSettingsCache;
+    // The port toggle, the tile is only active while adb is enabled as well
+    private SettingsToggleSpec mSpec;
+    private NetworkAddressTracker mAddressTracker;
+    private AdbClientTracker mClientTracker;
+
+    private final SettingsCache.Listener mSettingsListener = new SettingsCache.Listener() {
+        @Override
+        public void onSettingChanged(SettingsCache.Key key) {
+            if (key == SettingsCache.ADB_ENABLED || key == mSpec.mKey) {
+                refresh();
+            }
+        }
+    };
+
+    private final NetworkAddressTracker.Callback mAddressCallback =
+            new NetworkAddressTracker.Callback() {
+        @Override
+        public void onAddressesChanged(List<InetAddress> addresses) {
+            refresh();
+        }
+    };
+
+    private final AdbClientTracker.Callback mClientCallback = new AdbClientTracker.Callback() {
+        @Override
+        public void onClientCountChanged(int count) {
+            refresh();
+        }
+    };
+
+    private final Runnable mRefreshRunnable = new Runnable() {
         @Override
-        public void onChange(boolean selfChange, Uri uri) {
+        public void run() {
             refresh();
         }
     };
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mSettingsCache = SettingsCache.get(this);
+        mSpec = SettingsToggleSpec.get(this, new ComponentName(this, getClass()));
+        mAddressTracker = NetworkAddressTracker.get(SystemServices.getConnectivityManager(this));
+        mClientTracker = AdbClientTracker.get();
+    }
+
     @Override
     public void onStartListening() {
         super.onStartListening();
 
-        getContentResolver().registerContentObserver(
-                CMSettings.Secure.getUriFor(CMSettings.Secure.ADB_PORT),
-                false, mObserver);
-        getContentResolver().registerContentObserver(
-                Settings.Global.getUriFor(Settings.Global.ADB_ENABLED),
-                false, mObserver);
-
-        refresh();
+        final long start = sStats.begin(TileStats.EVENT_START_LISTENING);
+        mSettingsCache.addListener(mSettingsListener);
+        mRenderer.refreshAfterRestore(mRefreshRunnable);
+        sStats.end(TileStats.EVENT_START_LISTENING, start);
     }
 
     @Override
     public void onStopListening() {
         super.onStopListening();
 
-        getContentResolver().unregisterContentObserver(mObserver);
+        mSettingsCache.removeListener(mSettingsListener);
+        mAddressTracker.stop();
+        mClientTracker.stop();
+        mRenderer.cancelRefresh(mRefreshRunnable);
     }
 
     @Override
     public void onClick() {
         super.onClick();
 
-        CMSettings.Secure.putIntForUser(getContentResolver(),
-                CMSettings.Secure.ADB_PORT,
-                getQsTile().getState() == Tile.STATE_ACTIVE ? -1 : 5555,
-                UserHandle.USER_CURRENT);
-
+        final long start = sStats.begin(TileStats.EVENT_CLICK);
+        mSettingsCache.putIntAsync(mSpec.mKey, mSpec.mToggle.getToggledValue(isActive()));
         refresh();
+        sStats.end(TileStats.EVENT_CLICK, start);
     }
 
-    private void refresh() {
-        if (isAdbEnabled() && isAdbNetworkEnabled()) {
-            WifiManager wifiManager = (WifiManager) getSystemService(Context.WIFI_SERVICE);
-            WifiInfo wifiInfo = wifiManager.getConnectionInfo();
-
-            if (wifiInfo != null) {
-                // if wifiInfo is not null, set the label to "hostAddress"
-                InetAddress address = NetworkUtils.intToInetAddress(wifiInfo.getIpAddress());
-                getQsTile().setLabel(address.getHostAddress());
-            } else {
-                // if wifiInfo is null, set the label without host address
-                getQsTile().setLabel(getString(R.string.network_adb_label));
-            }
-
-            getQsTile().setIcon(Icon.createWithResource(this, R.drawable.ic_network_adb_on));
-            getQsTile().setState(Tile.STATE_ACTIVE);
-        } else {
-            getQsTile().setLabel(this.getString(R.string.network_adb_label));
-            getQsTile().setIcon(Icon.createWithResource(this, R.drawable.ic_network_adb_off));
-            getQsTile().setState(Tile.STATE_INACTIVE);
-        }
-        getQsTile().updateTile();
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        mRenderer.dump(pw);
     }
 
-    private boolean isAdbEnabled() {
-        return Settings.Global.getInt(getContentResolver(),
-                Settings.Global.ADB_ENABLED, 0) > 0;
+    private boolean isActive() {
+        return AdbNetworkState.isActive(
+                mSettingsCache.getInt(SettingsCache.ADB_ENABLED, sStats),
+                mSettingsCache.getInt(mSpec.mKey, sStats));
     }
 
-    private boolean isAdbNetworkEnabled() {
-        return CMSettings.Secure.getInt(getContentResolver(),
-                CMSettings.Secure.ADB_PORT, 0) > 0;
+    private void refresh() {
+        final long start = sStats.begin(TileStats.EVENT_REFRESH);
+        if (isActive()) {
+            mAddressTracker.start(mAddressCallback);
+            mClientTracker.start(mSettingsCache.getInt(mSpec.mKey, sStats), mClientCallback);
+
+            String label = AdbNetworkState.getLabel(mAddressTracker.getAddresses(),
+                    getString(R.string.network_adb_label));
+            final int clients = mClientTracker.getClientCount();
+            if (clients > 0) {
+                label = getResources().getQuantityString(R.plurals.network_adb_clients,
+                        clients, label, clients);
+            }
+            mRenderer.render(Tile.STATE_ACTIVE, label, mSpec.mIconOn);
+        } else {
+            mAddressTracker.stop();
+            mClientTracker.stop();
+            mRenderer.render(Tile.STATE_INACTIVE, getString(R.string.network_adb_label),
+                    mSpec.mIconOff);
+        }
+        sStats.end(TileStats.EVENT_REFRESH, start);
     }
 
 }
@@ -15,41 +15,8 @@
  */
 package org.lineageos.customtiles;
 
-import android.graphics.drawable.Icon;
-import android.provider.Settings;
-import android.service.quicksettings.Tile;
-import android.service.quicksettings.TileService;
-
-public class AmbientDisplayTile extends TileService {
-
-    @Override
-    public void onStartListening() {
-        super.onStartListening();
-
-        refresh();
-    }
-
-    @Override
-    public void onClick() {
-        super.onClick();
-
-        Settings.Secure.putInt(getContentResolver(),
-                Settings.Secure.DOZE_ENABLED,
-                getQsTile().getState() == Tile.STATE_INACTIVE ? 1 : 0);
-        refresh();
-    }
-
-    private void refresh() {
-        boolean enabled = Settings.Secure.getInt(getContentResolver(),
-                Settings.Secure.DOZE_ENABLED, 1) != 0;
-        if (enabled) {
-            getQsTile().setIcon(Icon.createWithResource(this, R.drawable.ic_ambient_display_on));
-            getQsTile().setState(Tile.STATE_ACTIVE);
-        } else {
-            getQsTile().setIcon(Icon.createWithResource(this, R.drawable.ic_ambient_display_off));
-            getQsTile().setState(Tile.STATE_INACTIVE);
-        }
-        getQsTile().updateTile();
-    }
-
+/**
+ * Declared by its spec in the manifest, see {@link SettingsToggleSpec}.
+ */
+public class AmbientDisplayTile extends SettingsToggleTile {
 }
@@ -19,22 +19,36 @@ import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.net.ConnectivityManager;
 import android.os.Build;
 import android.os.SystemProperties;
 import android.text.TextUtils;
 
+import com.android.internal.os.BackgroundThread;
+
 import cyanogenmod.power.PerformanceManager;
 
 public class BootReceiver extends BroadcastReceiver {
 
+    private static final String PREFS_NAME = "boot";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_CAPABILITIES = "capabilities";
+    private static final String KEY_CHECKED = "checked";
+
     private static void setTileEnabled(Context context, Class cls, boolean enable) {
         final PackageManager pm = context.getPackageManager();
-        pm.setComponentEnabledSetting(new ComponentName(context, cls),
-                enable ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
-                        : PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
-                PackageManager.DONT_KILL_APP);
+        final ComponentName component = new ComponentName(context, cls);
+        final int state = enable ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED
+                : PackageManager.COMPONENT_ENABLED_STATE_DISABLED;
+        final int current = pm.getComponentEnabledSetting(component);
+        if (current == state || (enable
+                && current == PackageManager.COMPONENT_ENABLED_STATE_DEFAULT)) {
+            // Tiles are enabled in the manifest, so the default state is enabled
+            return;
+        }
+        pm.setComponentEnabledSetting(component, state, PackageManager.DONT_KILL_APP);
     }
 
     private static boolean isDozeAvailable(Context context) {
@@ -53,13 +67,125 @@ public class BootReceiver extends BroadcastReceiver {
     }
 
     public static boolean hasPowerProfiles(Context context) {
-        return PerformanceManager.getInstance(context).getNumberOfProfiles() > 0;
+        return !PerformanceManager.getInstance(context).getPowerProfiles().isEmpty();
+    }
+
+    private static boolean hasCompass(Context context) {
+        return context.getPackageManager().hasSystemFeature(
+                PackageManager.FEATURE_SENSOR_COMPASS);
+    }
+
+    /**
+     * Probes the capabilities in {@code mask}.
+     */
+    private static int probeCapabilities(Context context, int mask) {
+        int capabilities = 0;
+        if ((mask & TileRegistry.CAPABILITY_DOZE) != 0 && isDozeAvailable(context)) {
+            capabilities |= TileRegistry.CAPABILITY_DOZE;
+        }
+        if ((mask & TileRegistry.CAPABILITY_TETHERING) != 0 && isTetheringSupported(context)) {
+            capabilities |= TileRegistry.CAPABILITY_TETHERING;
+        }
+        if ((mask & TileRegistry.CAPABILITY_POWER_PROFILES) != 0 && hasPowerProfiles(context)) {
+            capabilities |= TileRegistry.CAPABILITY_POWER_PROFILES;
+        }
+        if ((mask & TileRegistry.CAPABILITY_COMPASS) != 0 && hasCompass(context)) {
+            capabilities |= TileRegistry.CAPABILITY_COMPASS;
+        }
+        return capabilities;
+    }
+
+    private static SharedPreferences getPrefs(Context context) {
+        return context.createDeviceProtectedStorageContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Applies the capabilities stored for this build, without probing. Called at
+     * LOCKED_BOOT_COMPLETED, before the services some probes need are ready.
+     */
+    private static void applyStoredCapabilities(Context context) {
+        final SharedPreferences prefs = getPrefs(context);
+        if (Build.FINGERPRINT.equals(prefs.getString(KEY_FINGERPRINT, null))) {
+            reconcile(context, prefs.getInt(KEY_CAPABILITIES, 0),
+                    prefs.getInt(KEY_CHECKED, 0));
+        }
+    }
+
+    /**
+     * Returns the device capabilities. Probe results, present or missing, are
+     * stored until the next build; only capabilities without a stored result are
+     * probed. Tethering depends on the carrier, so it is never stored and always
+     * probed.
+     */
+    private static int getCapabilities(Context context) {
+        final SharedPreferences prefs = getPrefs(context);
+        int stored = 0;
+        int checked = 0;
+        if (Build.FINGERPRINT.equals(prefs.getString(KEY_FINGERPRINT, null))) {
+            stored = prefs.getInt(KEY_CAPABILITIES, 0);
+            checked = prefs.getInt(KEY_CHECKED, 0) & ~TileRegistry.CAPABILITY_TETHERING;
+        }
+
+        final int capabilities = (stored & checked) | probeCapabilities(context, ~checked);
+        final int storable = ~TileRegistry.CAPABILITY_TETHERING;
+        if (checked != storable) {
+            prefs.edit()
+                    .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                    .putInt(KEY_CAPABILITIES, capabilities & storable)
+                    .putInt(KEY_CHECKED, storable)
+                    .commit();
+        }
+        return capabilities;
+    }
+
+    /**
+     * Enables or disables the tiles needing any of the {@code checked} capabilities.
+     */
+    private static void reconcile(Context context, int capabilities, int checked) {
+        for (TileRegistry.Entry tile : TileRegistry.TILES) {
+            if ((tile.mCapabilities & checked) != 0) {
+                setTileEnabled(context, tile.mTileClass,
+                        (capabilities & tile.mCapabilities) == tile.mCapabilities);
+            }
+        }
+    }
+
+    /**
+     * Re-checks tethering support, which follows the carrier configuration.
+     * Called on the background thread when the carrier changes.
+     */
+    static void reconcileTethering(Context context) {
+        reconcile(context, probeCapabilities(context, TileRegistry.CAPABILITY_TETHERING),
+                TileRegistry.CAPABILITY_TETHERING);
     }
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        setTileEnabled(context, AmbientDisplayTile.class, isDozeAvailable(context));
-        setTileEnabled(context, UsbTetherTile.class, isTetheringSupported(context));
+        final String action = intent.getAction();
+        final boolean bootCompleted = Intent.ACTION_BOOT_COMPLETED.equals(action);
+        if (!bootCompleted && !Intent.ACTION_LOCKED_BOOT_COMPLETED.equals(action)) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext();
+        final PendingResult result = goAsync();
+        BackgroundThread.getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!bootCompleted) {
+                        applyStoredCapabilities(appContext);
+                        return;
+                    }
+                    // Only probe once the system services are all up
+                    reconcile(appContext, getCapabilities(appContext), ~0);
+                    ActiveTileJobService.ensureScheduled(appContext);
+                    ActiveTileJobService.requestAll(appContext);
+                } finally {
+                    result.finish();
+                }
+            }
+        });
     }
 
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.os.SystemClock;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import org.lineageos.customtiles.core.CaffeineSession;
+
+import java.util.ArrayList;
+
+/**
+ * In-process holder for the caffeine state published by {@link WakelockService},
+ * so the tile can read it without binding to the service. Accessed on the main
+ * thread only.
+ */
+public class CaffeineState {
+    private static CaffeineState sInstance;
+
+    private final ArrayList<Listener> mListeners = new ArrayList<>();
+
+    private boolean mActive;
+    private long mEndTime;
+
+    public interface Listener {
+        void onCaffeineStateChanged();
+    }
+
+    private CaffeineState() {
+    }
+
+    public static CaffeineState get() {
+        if (sInstance == null) {
+            sInstance = new CaffeineState();
+        }
+        return sInstance;
+    }
+
+    public boolean isActive() {
+        return mActive;
+    }
+
+    /**
+     * Returns the time left in milliseconds, or
+     * {@link CaffeineSession#DURATION_INFINITE}.
+     */
+    public long getRemainingTime() {
+        if (mEndTime == 0) {
+            return CaffeineSession.DURATION_INFINITE;
+        }
+        return Math.max(0, mEndTime - SystemClock.elapsedRealtime());
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    @VisibleForTesting
+    int getListenerCount() {
+        return mListeners.size();
+    }
+
+    /**
+     * @param endTime the {@link SystemClock#elapsedRealtime()} the session ends at,
+     *                or 0 for none
+     */
+    void set(boolean active, long endTime) {
+        if (active == mActive && endTime == mEndTime) {
+            return;
+        }
+        mActive = active;
+        mEndTime = endTime;
+        for (int i = mListeners.size() - 1; i >= 0; i--) {
+            mListeners.get(i).onCaffeineStateChanged();
+        }
+    }
+}
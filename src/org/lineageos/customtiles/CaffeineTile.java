@@ -15,82 +15,115 @@
  */
 package org.lineageos.customtiles;
 
-import android.content.ComponentName;
 import android.content.Intent;
-import android.content.ServiceConnection;
-import android.graphics.drawable.Icon;
-import android.os.IBinder;
-import android.os.UserHandle;
+import android.os.Handler;
 import android.service.quicksettings.Tile;
 import android.service.quicksettings.TileService;
 
+import org.lineageos.customtiles.core.CaffeineSession;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class CaffeineTile extends TileService {
-    private WakelockService wakelockService;
-    private ServiceConnection serviceConnection;
+    private static final TileStats sStats = new TileStats("CaffeineTile");
+
+    private final TileRenderer mRenderer = new TileRenderer(this, sStats);
+    private final Handler mHandler = new Handler();
+    private final CaffeineState mState = CaffeineState.get();
+    private boolean mListening;
+
+    private final CaffeineState.Listener mListener = new CaffeineState.Listener() {
+        @Override
+        public void onCaffeineStateChanged() {
+            refresh();
+        }
+    };
+
+    private final Runnable mTickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
 
     @Override
     public void onStartListening() {
         super.onStartListening();
 
-        startServiceAsUser(new Intent(getApplicationContext(), WakelockService.class),
-                UserHandle.CURRENT);
-        serviceConnection = new ServiceConnection() {
-            @Override
-            public void onServiceConnected(ComponentName componentName, IBinder iBinder) {
-                wakelockService = ((WakelockService.Binder) iBinder).getService();
-                refresh();
-            }
-
-            @Override
-            public void onServiceDisconnected(ComponentName componentName) {
-                wakelockService = null;
-                refresh();
-            }
-        };
-        bindServiceAsUser(new Intent(getApplicationContext(), WakelockService.class),
-                serviceConnection, 0, UserHandle.CURRENT);
+        final long start = sStats.begin(TileStats.EVENT_START_LISTENING);
+        mListening = true;
+        mState.addListener(mListener);
+        mRenderer.refreshAfterRestore(mRefreshRunnable);
+        sStats.end(TileStats.EVENT_START_LISTENING, start);
     }
 
     @Override
     public void onStopListening() {
         super.onStopListening();
 
-        if (wakelockService != null && !wakelockService.isActive()) {
-            stopServiceAsUser(new Intent(getApplicationContext(), WakelockService.class),
-                    UserHandle.CURRENT);
-        }
-
-        unbindService(serviceConnection);
+        mListening = false;
+        mState.removeListener(mListener);
+        mHandler.removeCallbacks(mTickRunnable);
+        mRenderer.cancelRefresh(mRefreshRunnable);
     }
 
     @Override
     public void onTileRemoved() {
         super.onTileRemoved();
 
-        stopServiceAsUser(new Intent(getApplicationContext(), WakelockService.class),
-                UserHandle.CURRENT);
+        if (mState.isActive()) {
+            stopService(new Intent(getApplicationContext(), WakelockService.class));
+        }
     }
 
     @Override
     public void onClick() {
         super.onClick();
 
-        if (wakelockService != null) {
-            wakelockService.toggle();
-        }
+        final long start = sStats.begin(TileStats.EVENT_CLICK);
+        sStats.countBinderCall();
+        // The service runs for our own user, so that it updates the CaffeineState of
+        // this process rather than the one of whichever user is current
+        startService(new Intent(WakelockService.ACTION_CYCLE)
+                .setClass(getApplicationContext(), WakelockService.class));
+        sStats.end(TileStats.EVENT_CLICK, start);
+    }
 
-        refresh();
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        mRenderer.dump(pw);
     }
 
     private void refresh() {
-        getQsTile().setLabel(getString(R.string.caffeine_label));
-        if (wakelockService != null && wakelockService.isActive()) {
-            getQsTile().setIcon(Icon.createWithResource(this, R.drawable.ic_caffeine_on));
-            getQsTile().setState(Tile.STATE_ACTIVE);
+        final long start = sStats.begin(TileStats.EVENT_REFRESH);
+        mHandler.removeCallbacks(mTickRunnable);
+        if (mState.isActive()) {
+            long remaining = mState.getRemainingTime();
+            String label;
+            if (remaining == CaffeineSession.DURATION_INFINITE) {
+                label = getString(R.string.caffeine_label);
+            } else {
+                // Show whole minutes, rounded up, and wake up only when that changes
+                label = getString(R.string.caffeine_remaining_minutes,
+                        CaffeineSession.getRemainingMinutes(remaining));
+                if (mListening) {
+                    mHandler.postDelayed(mTickRunnable,
+                            CaffeineSession.getDelayToNextMinute(remaining));
+                }
+            }
+            mRenderer.render(Tile.STATE_ACTIVE, label, R.drawable.ic_caffeine_on);
         } else {
-            getQsTile().setIcon(Icon.createWithResource(this, R.drawable.ic_caffeine_off));
-            getQsTile().setState(Tile.STATE_INACTIVE);
+            mRenderer.render(Tile.STATE_INACTIVE, getString(R.string.caffeine_label),
+                    R.drawable.ic_caffeine_off);
         }
-        getQsTile().updateTile();
+        sStats.end(TileStats.EVENT_REFRESH, start);
     }
 }
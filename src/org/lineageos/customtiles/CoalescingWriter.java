@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.os.Handler;
+import android.util.ArrayMap;
+
+import com.android.internal.os.BackgroundThread;
+
+import java.io.PrintWriter;
+
+/**
+ * Performs writes on the background thread, keeping only the latest value submitted
+ * for each key. Rapid toggles therefore cost at most one write in flight plus one
+ * queued write, whatever the number of taps.
+ */
+public class CoalescingWriter<K> {
+
+    public interface Target<K> {
+        /** Called on the background thread with the latest value submitted for the key. */
+        void write(K key, int value);
+
+        /** Called on the background thread once no write is pending for the key. */
+        void onWritesFinished(K key);
+    }
+
+    private final Handler mBgHandler = BackgroundThread.getHandler();
+    private final Target<K> mTarget;
+    private final ArrayMap<K, Integer> mPending = new ArrayMap<>();
+
+    private int mSubmitted;
+    private int mWritten;
+
+    public CoalescingWriter(Target<K> target) {
+        mTarget = target;
+    }
+
+    public void submit(final K key, int value) {
+        synchronized (mPending) {
+            mSubmitted++;
+            if (mPending.put(key, value) != null) {
+                // The write already queued or in flight picks up the new value
+                return;
+            }
+        }
+        mBgHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final int value;
+                synchronized (mPending) {
+                    value = mPending.get(key);
+                }
+                mTarget.write(key, value);
+
+                final boolean finished;
+                synchronized (mPending) {
+                    mWritten++;
+                    finished = mPending.get(key) == value;
+                    if (finished) {
+                        mPending.remove(key);
+                    }
+                }
+                if (finished) {
+                    mTarget.onWritesFinished(key);
+                } else {
+                    mBgHandler.post(this);
+                }
+            }
+        });
+    }
+
+    /**
+     * Whether a value submitted for the key has not been written yet.
+     */
+    public boolean isPending(K key) {
+        synchronized (mPending) {
+            return mPending.containsKey(key);
+        }
+    }
+
+    public void dump(String prefix, PrintWriter pw) {
+        synchronized (mPending) {
+            pw.println(prefix + "submitted=" + mSubmitted + " written=" + mWritten
+                    + " pending=" + mPending.size());
+        }
+    }
+}
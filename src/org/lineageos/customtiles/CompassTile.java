@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.content.res.Configuration;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+import android.view.Surface;
+
+import com.android.internal.os.BackgroundThread;
+
+import org.lineageos.customtiles.core.HeadingFilter;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+public class CompassTile extends TileService {
+
+    private static final TileStats sStats = new TileStats("CompassTile");
+
+    // The label changes at most this often, so there is no point sampling faster
+    private static final int SAMPLING_PERIOD_US = 100 * 1000;
+    // Lets the sensor hub deliver samples in batches instead of waking us up for each
+    private static final int MAX_REPORT_LATENCY_US = 400 * 1000;
+
+    private static final float HEADING_ALPHA = 0.25f;
+    private static final float VECTOR_ALPHA = 0.2f;
+
+    // Smaller changes of the heading are not worth a tile update
+    private static final int HEADING_THRESHOLD = 5;
+
+    private final TileRenderer mRenderer = new TileRenderer(this, sStats);
+    private final Handler mHandler = new Handler();
+    private final Handler mBgHandler = BackgroundThread.getHandler();
+
+    private SensorManager mSensorManager;
+    private Sensor mRotationVector;
+    private Sensor mAccelerometer;
+    private Sensor mMagnetometer;
+    private String[] mDirections;
+    // Whether the user turned the compass on, persisted across processes
+    private boolean mEnabled;
+    private boolean mListening;
+    private boolean mRegistered;
+
+    // Only touched from the sensor thread
+    private final HeadingFilter mFilter = new HeadingFilter(HEADING_ALPHA);
+    private final float[] mRotationMatrix = new float[9];
+    private final float[] mDisplayMatrix = new float[9];
+    private final float[] mOrientation = new float[3];
+    private final float[] mGravity = new float[3];
+    private final float[] mGeomagnetic = new float[3];
+    private boolean mHasGravity;
+    private boolean mHasGeomagnetic;
+
+    private volatile int mHeading = HeadingFilter.HEADING_UNKNOWN;
+    private volatile int mRotation;
+
+    private final SensorEventListener mSensorListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            switch (event.sensor.getType()) {
+                case Sensor.TYPE_ROTATION_VECTOR:
+                    SensorManager.getRotationMatrixFromVector(mRotationMatrix, event.values);
+                    break;
+                case Sensor.TYPE_ACCELEROMETER:
+                    updateVector(event.values, mGravity, mHasGravity);
+                    mHasGravity = true;
+                    if (!computeFusedMatrix()) {
+                        return;
+                    }
+                    break;
+                case Sensor.TYPE_MAGNETIC_FIELD:
+                    updateVector(event.values, mGeomagnetic, mHasGeomagnetic);
+                    mHasGeomagnetic = true;
+                    if (!computeFusedMatrix()) {
+                        return;
+                    }
+                    break;
+                default:
+                    return;
+            }
+            SensorManager.getOrientation(getDisplayMatrix(), mOrientation);
+            mFilter.add(mOrientation[0]);
+
+            final int heading = mFilter.getHeading();
+            final int shown = mHeading;
+            if (shown == HeadingFilter.HEADING_UNKNOWN
+                    || HeadingFilter.getDistance(shown, heading) >= HEADING_THRESHOLD) {
+                mHeading = heading;
+                mHandler.removeCallbacks(mRefreshRunnable);
+                mHandler.post(mRefreshRunnable);
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    private final Runnable mResetRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mFilter.reset();
+            mHasGravity = false;
+            mHasGeomagnetic = false;
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mSensorManager = SystemServices.getSensorManager(this);
+        mRotationVector = mSensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        if (mRotationVector == null) {
+            mAccelerometer = mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+            mMagnetometer = mSensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+        }
+        mDirections = getResources().getStringArray(R.array.compass_directions);
+        mEnabled = TileStateStore.get(this).isEnabled(sStats.getName());
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+
+        if (mRegistered) {
+            updateRotation();
+        }
+    }
+
+    @Override
+    public void onStartListening() {
+        super.onStartListening();
+
+        final long start = sStats.begin(TileStats.EVENT_START_LISTENING);
+        mListening = true;
+        updateRegistration();
+        refresh();
+        sStats.end(TileStats.EVENT_START_LISTENING, start);
+    }
+
+    @Override
+    public void onStopListening() {
+        super.onStopListening();
+
+        mListening = false;
+        updateRegistration();
+        mHandler.removeCallbacks(mRefreshRunnable);
+    }
+
+    @Override
+    public void onClick() {
+        super.onClick();
+
+        final long start = sStats.begin(TileStats.EVENT_CLICK);
+        mEnabled = !mEnabled;
+        TileStateStore.get(this).setEnabled(sStats.getName(), mEnabled);
+        updateRegistration();
+        refresh();
+        sStats.end(TileStats.EVENT_CLICK, start);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        mRenderer.dump(pw);
+    }
+
+    private void updateRegistration() {
+        final boolean register = mListening && mEnabled;
+        if (register == mRegistered) {
+            return;
+        }
+        sStats.countBinderCall();
+        if (register) {
+            mHeading = HeadingFilter.HEADING_UNKNOWN;
+            updateRotation();
+            mBgHandler.post(mResetRunnable);
+            if (mRotationVector != null) {
+                registerSensor(mRotationVector);
+            } else {
+                registerSensor(mAccelerometer);
+                registerSensor(mMagnetometer);
+            }
+        } else {
+            mSensorManager.unregisterListener(mSensorListener);
+        }
+        mRegistered = register;
+    }
+
+    private void registerSensor(Sensor sensor) {
+        if (sensor != null) {
+            mSensorManager.registerListener(mSensorListener, sensor, SAMPLING_PERIOD_US,
+                    MAX_REPORT_LATENCY_US, mBgHandler);
+        }
+    }
+
+    private void updateRotation() {
+        mRotation = SystemServices.getWindowManager(this).getDefaultDisplay().getRotation();
+    }
+
+    private static void updateVector(float[] values, float[] filtered, boolean hasValue) {
+        if (hasValue) {
+            HeadingFilter.lowPass(values, filtered, VECTOR_ALPHA);
+        } else {
+            System.arraycopy(values, 0, filtered, 0, filtered.length);
+        }
+    }
+
+    private boolean computeFusedMatrix() {
+        return mHasGravity && mHasGeomagnetic
+                && SensorManager.getRotationMatrix(mRotationMatrix, null, mGravity, mGeomagnetic);
+    }
+
+    /**
+     * Returns the rotation matrix in display coordinates, so the heading is where
+     * the top of the screen points rather than the top of the device.
+     */
+    private float[] getDisplayMatrix() {
+        final int axisX;
+        final int axisY;
+        switch (mRotation) {
+            case Surface.ROTATION_90:
+                axisX = SensorManager.AXIS_Y;
+                axisY = SensorManager.AXIS_MINUS_X;
+                break;
+            case Surface.ROTATION_180:
+                axisX = SensorManager.AXIS_MINUS_X;
+                axisY = SensorManager.AXIS_MINUS_Y;
+                break;
+            case Surface.ROTATION_270:
+                axisX = SensorManager.AXIS_MINUS_Y;
+                axisY = SensorManager.AXIS_X;
+                break;
+            default:
+                return mRotationMatrix;
+        }
+        SensorManager.remapCoordinateSystem(mRotationMatrix, axisX, axisY, mDisplayMatrix);
+        return mDisplayMatrix;
+    }
+
+    private void refresh() {
+        final long start = sStats.begin(TileStats.EVENT_REFRESH);
+        final int heading = mHeading;
+        if (!mEnabled) {
+            mRenderer.render(Tile.STATE_INACTIVE, getString(R.string.compass_label),
+                    R.drawable.ic_compass_off);
+        } else if (heading == HeadingFilter.HEADING_UNKNOWN) {
+            mRenderer.render(Tile.STATE_ACTIVE, getString(R.string.compass_label),
+                    R.drawable.ic_compass_on);
+        } else {
+            String direction = mDirections[HeadingFilter.getSector(heading, mDirections.length)];
+            mRenderer.render(Tile.STATE_ACTIVE,
+                    getString(R.string.compass_heading, heading, direction),
+                    R.drawable.ic_compass_on);
+        }
+        sStats.end(TileStats.EVENT_REFRESH, start);
+    }
+
+}
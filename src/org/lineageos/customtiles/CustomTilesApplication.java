@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.app.Application;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import com.android.internal.os.BackgroundThread;
+
+import java.io.PrintWriter;
+
+/**
+ * Warms up the shared state of the tiles on the background thread while the first
+ * tile service is being created, makes sure the active tile job is scheduled, and
+ * traces the time from process start to the first tile update
+ * ("CustomTiles.firstUpdate" async section).
+ */
+public class CustomTilesApplication extends Application {
+
+    private static final String FIRST_UPDATE_SECTION = "CustomTiles.firstUpdate";
+
+    private static final int[] PRELOAD_ICONS = {
+        R.drawable.ic_ambient_display_off, R.drawable.ic_ambient_display_on,
+        R.drawable.ic_caffeine_off, R.drawable.ic_caffeine_on,
+        R.drawable.ic_compass_off, R.drawable.ic_compass_on,
+        R.drawable.ic_heads_up_off, R.drawable.ic_heads_up_on,
+        R.drawable.ic_network_adb_off, R.drawable.ic_network_adb_on,
+        R.drawable.ic_perf_profile,
+        R.drawable.ic_sync_off, R.drawable.ic_sync_on,
+        R.drawable.ic_usb_tether_off, R.drawable.ic_usb_tether_on,
+        R.drawable.ic_volume_panel,
+    };
+
+    private static long sFirstUpdateDelay = -1;
+
+    private int mMcc;
+    private int mMnc;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        Trace.beginSection("CustomTilesApplication.onCreate");
+        Trace.asyncTraceBegin(Trace.TRACE_TAG_APP, FIRST_UPDATE_SECTION, 0);
+
+        final Configuration config = getResources().getConfiguration();
+        mMcc = config.mcc;
+        mMnc = config.mnc;
+
+        final Context context = getApplicationContext();
+        BackgroundThread.getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                Trace.beginSection("CustomTilesApplication.preload");
+                SystemServices.preload(context);
+                // Starts loading the stored states from disk
+                TileStateStore.get(context);
+                SettingsCache.get(context);
+                EventHub.get(context);
+                for (int icon : PRELOAD_ICONS) {
+                    TileRenderer.getIcon(context, icon);
+                }
+                // Also covers a force stop, which cancels the jobs of the package
+                ActiveTileJobService.ensureScheduled(context);
+                Trace.endSection();
+            }
+        });
+        Trace.endSection();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+
+        if (newConfig.mcc == mMcc && newConfig.mnc == mMnc) {
+            return;
+        }
+        mMcc = newConfig.mcc;
+        mMnc = newConfig.mnc;
+        // Tethering support depends on the carrier configuration
+        final Context context = getApplicationContext();
+        BackgroundThread.getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                BootReceiver.reconcileTethering(context);
+            }
+        });
+    }
+
+    /**
+     * Called by {@link TileRenderer} when the first tile update of the process is sent.
+     */
+    static void onFirstTileUpdate() {
+        Trace.asyncTraceEnd(Trace.TRACE_TAG_APP, FIRST_UPDATE_SECTION, 0);
+        sFirstUpdateDelay = SystemClock.uptimeMillis() - Process.getStartUptimeMillis();
+    }
+
+    static void dump(PrintWriter pw) {
+        pw.println("CustomTilesApplication:");
+        pw.println("  processStartToFirstUpdate=" + (sFirstUpdateDelay >= 0
+                ? sFirstUpdateDelay + "ms" : "none"));
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.hardware.usb.UsbManager;
+import android.net.ConnectivityManager;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.BackgroundThread;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Shares broadcast and content observer registrations between all components of
+ * the process. There is one system registration per action or URI, held while it
+ * has subscribers and for {@link #IDLE_GRACE_MS} after the last one leaves, so
+ * opening and closing the quick settings panel does not register again each time.
+ *
+ * Events are delivered on the background thread, and the system registrations are
+ * made and released there too, outside the lock. A new subscriber to a sticky
+ * broadcast gets the last intent replayed, as it would from the system. URIs are
+ * observed for all users, and subscribers are told which user changed.
+ */
+public class EventHub {
+
+    public interface BroadcastSubscriber {
+        void onReceive(Intent intent);
+    }
+
+    public interface UriSubscriber {
+        void onChange(Uri uri, int userId);
+    }
+
+    private static final long IDLE_GRACE_MS = 10 * 1000;
+
+    // Sticky actions whose first broadcast may come after the registration
+    private static final ArraySet<String> STICKY_ACTIONS = new ArraySet<>();
+    static {
+        STICKY_ACTIONS.add(ConnectivityManager.ACTION_TETHER_STATE_CHANGED);
+        STICKY_ACTIONS.add(Intent.ACTION_BATTERY_CHANGED);
+        STICKY_ACTIONS.add(UsbManager.ACTION_USB_STATE);
+    }
+
+    private static EventHub sInstance;
+
+    private final Context mContext;
+    private final Handler mBgHandler = BackgroundThread.getHandler();
+    private final ArrayMap<String, ActionRegistration> mActions = new ArrayMap<>();
+    private final ArrayMap<Uri, UriRegistration> mUris = new ArrayMap<>();
+
+    private int mSystemRegistrations;
+
+    private abstract class Registration<S> {
+        final ArrayList<S> mSubscribers = new ArrayList<>();
+        // Whether the system registration should be held, guarded by the EventHub lock
+        boolean mWanted;
+        // Whether it is held, only touched from the background thread
+        boolean mRegistered;
+
+        // Brings the system registration in line with mWanted
+        final Runnable mUpdateRunnable = new Runnable() {
+            @Override
+            public void run() {
+                final boolean wanted;
+                synchronized (EventHub.this) {
+                    wanted = mWanted;
+                }
+                if (wanted == mRegistered) {
+                    return;
+                }
+                mRegistered = wanted;
+                if (wanted) {
+                    register();
+                } else {
+                    unregister();
+                }
+            }
+        };
+
+        // Posted when the last subscriber leaves
+        final Runnable mReleaseRunnable = new Runnable() {
+            @Override
+            public void run() {
+                synchronized (EventHub.this) {
+                    if (!mSubscribers.isEmpty() || !mWanted) {
+                        return;
+                    }
+                    mWanted = false;
+                }
+                mUpdateRunnable.run();
+            }
+        };
+
+        /**
+         * Returns true if there was no registration, so events may have been missed.
+         */
+        boolean add(S subscriber) {
+            mBgHandler.removeCallbacks(mReleaseRunnable);
+            mSubscribers.add(subscriber);
+            if (mWanted) {
+                return false;
+            }
+            mWanted = true;
+            mSystemRegistrations++;
+            mBgHandler.post(mUpdateRunnable);
+            return true;
+        }
+
+        void remove(S subscriber) {
+            if (mSubscribers.remove(subscriber) && mSubscribers.isEmpty()) {
+                mBgHandler.postDelayed(mReleaseRunnable, IDLE_GRACE_MS);
+            }
+        }
+
+        abstract void register();
+
+        abstract void unregister();
+    }
+
+    private final class ActionRegistration extends Registration<BroadcastSubscriber> {
+        final String mAction;
+        // Whether the action is sticky, its last intent is replayed to new subscribers
+        boolean mSticky;
+        Intent mStickyIntent;
+
+        final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                final BroadcastSubscriber[] subscribers;
+                synchronized (EventHub.this) {
+                    if (isInitialStickyBroadcast()) {
+                        mSticky = true;
+                    }
+                    if (mSticky) {
+                        mStickyIntent = intent;
+                    }
+                    subscribers = mSubscribers.toArray(
+                            new BroadcastSubscriber[mSubscribers.size()]);
+                }
+                for (BroadcastSubscriber subscriber : subscribers) {
+                    subscriber.onReceive(intent);
+                }
+            }
+        };
+
+        ActionRegistration(String action) {
+            mAction = action;
+            mSticky = STICKY_ACTIONS.contains(action);
+        }
+
+        @Override
+        boolean add(final BroadcastSubscriber subscriber) {
+            final boolean resumed = super.add(subscriber);
+            if (mStickyIntent != null) {
+                final Intent intent = mStickyIntent;
+                mBgHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (EventHub.this) {
+                            if (!mSubscribers.contains(subscriber)) {
+                                return;
+                            }
+                        }
+                        subscriber.onReceive(intent);
+                    }
+                });
+            }
+            return resumed;
+        }
+
+        @Override
+        void register() {
+            // The system delivers the sticky intent to the receiver by itself
+            final Intent stickyIntent = mContext.registerReceiver(mReceiver,
+                    new IntentFilter(mAction), null, mBgHandler);
+            synchronized (EventHub.this) {
+                if (stickyIntent != null) {
+                    mSticky = true;
+                    mStickyIntent = stickyIntent;
+                }
+            }
+        }
+
+        @Override
+        void unregister() {
+            mContext.unregisterReceiver(mReceiver);
+            synchronized (EventHub.this) {
+                mSticky = STICKY_ACTIONS.contains(mAction);
+                mStickyIntent = null;
+            }
+        }
+    }
+
+    private final class UriRegistration extends Registration<UriSubscriber> {
+        final Uri mUri;
+
+        final ContentObserver mObserver = new ContentObserver(mBgHandler) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri, int userId) {
+                final UriSubscriber[] subscribers;
+                synchronized (EventHub.this) {
+                    subscribers = mSubscribers.toArray(new UriSubscriber[mSubscribers.size()]);
+                }
+                for (UriSubscriber subscriber : subscribers) {
+                    subscriber.onChange(mUri, userId);
+                }
+            }
+        };
+
+        UriRegistration(Uri uri) {
+            mUri = uri;
+        }
+
+        @Override
+        void register() {
+            mContext.getContentResolver().registerContentObserver(mUri, false, mObserver,
+                    UserHandle.USER_ALL);
+        }
+
+        @Override
+        void unregister() {
+            mContext.getContentResolver().unregisterContentObserver(mObserver);
+        }
+    }
+
+    private EventHub(Context context) {
+        mContext = context;
+    }
+
+    public static synchronized EventHub get(Context context) {
+        if (sInstance == null) {
+            sInstance = new EventHub(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Subscribes to a broadcast action. Returns true if the action was not being
+     * received until now, so a non-sticky broadcast may have been missed.
+     */
+    public synchronized boolean subscribe(String action, BroadcastSubscriber subscriber) {
+        ActionRegistration registration = mActions.get(action);
+        if (registration == null) {
+            registration = new ActionRegistration(action);
+            mActions.put(action, registration);
+        }
+        return registration.add(subscriber);
+    }
+
+    public synchronized void unsubscribe(String action, BroadcastSubscriber subscriber) {
+        final ActionRegistration registration = mActions.get(action);
+        if (registration != null) {
+            registration.remove(subscriber);
+        }
+    }
+
+    public synchronized void subscribe(Uri uri, UriSubscriber subscriber) {
+        UriRegistration registration = mUris.get(uri);
+        if (registration == null) {
+            registration = new UriRegistration(uri);
+            mUris.put(uri, registration);
+        }
+        registration.add(subscriber);
+    }
+
+    public synchronized void unsubscribe(Uri uri, UriSubscriber subscriber) {
+        final UriRegistration registration = mUris.get(uri);
+        if (registration != null) {
+            registration.remove(subscriber);
+        }
+    }
+
+    @VisibleForTesting
+    synchronized int getListenerCount() {
+        int count = 0;
+        for (int i = 0; i < mActions.size(); i++) {
+            count += mActions.valueAt(i).mSubscribers.size();
+        }
+        for (int i = 0; i < mUris.size(); i++) {
+            count += mUris.valueAt(i).mSubscribers.size();
+        }
+        return count;
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("EventHub:");
+        pw.println("  systemRegistrations=" + mSystemRegistrations);
+        for (int i = 0; i < mActions.size(); i++) {
+            dumpRegistration(pw, mActions.keyAt(i), mActions.valueAt(i));
+        }
+        for (int i = 0; i < mUris.size(); i++) {
+            dumpRegistration(pw, mUris.keyAt(i).toString(), mUris.valueAt(i));
+        }
+    }
+
+    private static void dumpRegistration(PrintWriter pw, String name,
+            Registration<?> registration) {
+        pw.println("  " + name + ": subscribers=" + registration.mSubscribers.size()
+                + (registration.mWanted ? "" : " (unregistered)"));
+    }
+}
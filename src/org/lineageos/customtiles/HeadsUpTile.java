@@ -15,42 +15,8 @@
  */
 package org.lineageos.customtiles;
 
-import android.graphics.drawable.Icon;
-import android.provider.Settings;
-import android.service.quicksettings.Tile;
-import android.service.quicksettings.TileService;
-
-public class HeadsUpTile extends TileService {
-
-    @Override
-    public void onStartListening() {
-        super.onStartListening();
-
-        refresh();
-    }
-
-    @Override
-    public void onClick() {
-        super.onClick();
-
-        Settings.Global.putInt(getContentResolver(),
-                Settings.Global.HEADS_UP_NOTIFICATIONS_ENABLED,
-                getQsTile().getState() == Tile.STATE_INACTIVE ? 1 : 0);
-        refresh();
-    }
-
-    private void refresh() {
-        boolean enabled = Settings.Global.HEADS_UP_OFF != Settings.Global.getInt(
-                getContentResolver(), Settings.Global.HEADS_UP_NOTIFICATIONS_ENABLED,
-                Settings.Global.HEADS_UP_OFF);
-        if (enabled) {
-            getQsTile().setIcon(Icon.createWithResource(this, R.drawable.ic_heads_up_on));
-            getQsTile().setState(Tile.STATE_ACTIVE);
-        } else {
-            getQsTile().setIcon(Icon.createWithResource(this, R.drawable.ic_heads_up_off));
-            getQsTile().setState(Tile.STATE_INACTIVE);
-        }
-        getQsTile().updateTile();
-    }
-
+/**
+ * Declared by its spec in the manifest, see {@link SettingsToggleSpec}.
+ */
+public class HeadsUpTile extends SettingsToggleTile {
 }
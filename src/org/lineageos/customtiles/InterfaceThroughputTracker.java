@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.BackgroundThread;
+
+import org.lineageos.customtiles.core.ProcFileReader;
+import org.lineageos.customtiles.core.ThroughputMeter;
+
+import java.io.IOException;
+
+/**
+ * Samples the receive and transmit byte counters of a network interface on the
+ * background thread while started. The counter files stay open and are re-read
+ * in place, and the callback runs on the main thread only when a smoothed rate
+ * changes at the resolution it is displayed with.
+ */
+public class InterfaceThroughputTracker {
+    private static final String TAG = "InterfaceThroughput";
+
+    public interface Callback {
+        void onThroughputChanged();
+    }
+
+    private static final long SAMPLE_INTERVAL_MS = 1000;
+    private static final float SMOOTHING = 0.5f;
+    private static final long RESOLUTION = 1000;
+
+    private static InterfaceThroughputTracker sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Handler mBgHandler = BackgroundThread.getHandler();
+
+    // Only touched on the background thread
+    private final ThroughputMeter mRxMeter = new ThroughputMeter(SMOOTHING);
+    private final ThroughputMeter mTxMeter = new ThroughputMeter(SMOOTHING);
+    private String mOpenIface;
+    private ProcFileReader mRxReader;
+    private ProcFileReader mTxReader;
+
+    private Callback mCallback;
+    private volatile String mIface;
+    private volatile long mRxRate = ThroughputMeter.RATE_UNKNOWN;
+    private volatile long mTxRate = ThroughputMeter.RATE_UNKNOWN;
+
+    private final Runnable mSampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            final String iface = mIface;
+            if (iface == null) {
+                return;
+            }
+            if (!iface.equals(mOpenIface)) {
+                close();
+                open(iface);
+            }
+            try {
+                final long now = SystemClock.elapsedRealtime();
+                mRxMeter.add(mRxReader.readLong(), now);
+                mTxMeter.add(mTxReader.readLong(), now);
+            } catch (IOException e) {
+                // The interface is being torn down, open it again on the next sample
+                Log.w(TAG, "Unable to read counters of " + iface, e);
+                close();
+                mBgHandler.postDelayed(this, SAMPLE_INTERVAL_MS);
+                return;
+            }
+            final long rx = mRxMeter.getRate();
+            final long tx = mTxMeter.getRate();
+            final boolean changed = isVisibleChange(mRxRate, rx)
+                    || isVisibleChange(mTxRate, tx);
+            mRxRate = rx;
+            mTxRate = tx;
+            if (changed) {
+                mHandler.removeCallbacks(mDispatchRunnable);
+                mHandler.post(mDispatchRunnable);
+            }
+            mBgHandler.postDelayed(this, SAMPLE_INTERVAL_MS);
+        }
+    };
+
+    private final Runnable mCloseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            close();
+        }
+    };
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mCallback != null) {
+                mCallback.onThroughputChanged();
+            }
+        }
+    };
+
+    private InterfaceThroughputTracker() {
+    }
+
+    public static synchronized InterfaceThroughputTracker get() {
+        if (sInstance == null) {
+            sInstance = new InterfaceThroughputTracker();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Starts sampling {@code iface}, or switches to it if already started. Must
+     * be called on the main thread.
+     */
+    public void start(String iface, Callback callback) {
+        mCallback = callback;
+        if (iface.equals(mIface)) {
+            return;
+        }
+        if (mIface != null) {
+            mRxRate = ThroughputMeter.RATE_UNKNOWN;
+            mTxRate = ThroughputMeter.RATE_UNKNOWN;
+        }
+        mIface = iface;
+        mBgHandler.removeCallbacks(mSampleRunnable);
+        mBgHandler.post(mSampleRunnable);
+    }
+
+    public void stop() {
+        mCallback = null;
+        mHandler.removeCallbacks(mDispatchRunnable);
+        if (mIface == null) {
+            return;
+        }
+        mIface = null;
+        mRxRate = ThroughputMeter.RATE_UNKNOWN;
+        mTxRate = ThroughputMeter.RATE_UNKNOWN;
+        mBgHandler.removeCallbacks(mSampleRunnable);
+        mBgHandler.post(mCloseRunnable);
+    }
+
+    /**
+     * Returns the smoothed receive rate in bytes per second, or
+     * {@link ThroughputMeter#RATE_UNKNOWN} until two samples have been taken.
+     */
+    public long getRxRate() {
+        return mRxRate;
+    }
+
+    /**
+     * Returns the smoothed transmit rate in bytes per second, or
+     * {@link ThroughputMeter#RATE_UNKNOWN} until two samples have been taken.
+     */
+    public long getTxRate() {
+        return mTxRate;
+    }
+
+    @VisibleForTesting
+    int getListenerCount() {
+        return mIface != null ? 1 : 0;
+    }
+
+    private static boolean isVisibleChange(long oldRate, long newRate) {
+        return (oldRate < 0) != (newRate < 0) || oldRate / RESOLUTION != newRate / RESOLUTION;
+    }
+
+    private void open(String iface) {
+        final String dir = "/sys/class/net/" + iface + "/statistics/";
+        mRxReader = new ProcFileReader(dir + "rx_bytes", 32);
+        mTxReader = new ProcFileReader(dir + "tx_bytes", 32);
+        mRxMeter.reset();
+        mTxMeter.reset();
+        mOpenIface = iface;
+    }
+
+    private void close() {
+        if (mOpenIface == null) {
+            return;
+        }
+        closeReader(mRxReader);
+        closeReader(mTxReader);
+        mRxReader = null;
+        mTxReader = null;
+        mOpenIface = null;
+    }
+
+    private static void closeReader(ProcFileReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // Nothing to do, the file is opened again on the next start
+        }
+    }
+}
@@ -19,22 +19,10 @@ import android.app.Activity;
 import android.content.ComponentName;
 import android.content.Intent;
 import android.os.Bundle;
-import android.provider.Settings;
 import android.service.quicksettings.TileService;
 
-import java.util.HashMap;
-
 public class MainActivity extends Activity {
 
-    private static HashMap<String, Intent> LONG_CLICK_ACTIONS = new HashMap<String, Intent>() {{
-        put(".AdbOverNetworkTile", new Intent(Settings.ACTION_APPLICATION_DEVELOPMENT_SETTINGS));
-        put(".AmbientDisplayTile", new Intent(Settings.ACTION_DISPLAY_SETTINGS));
-        put(".HeadsUpTile", new Intent(Settings.ACTION_NOTIFICATION_SETTINGS));
-        put(".SyncTile", new Intent(Settings.ACTION_SYNC_SETTINGS));
-        put(".UsbTetherTile", new Intent(Settings.ACTION_WIRELESS_SETTINGS));
-        put(".VolumePanelTile", new Intent(Settings.ACTION_SOUND_SETTINGS));
-    }};
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -46,9 +34,18 @@ public class MainActivity extends Activity {
         Bundle extras = intent.getExtras();
         ComponentName component = extras.getParcelable(TileService.EXTRA_COMPONENT);
 
-        Intent targetIntent = LONG_CLICK_ACTIONS.get(component.getShortClassName());
-        if (targetIntent != null) {
-            startActivity(targetIntent);
+        String action = null;
+        SettingsToggleSpec spec = SettingsToggleSpec.get(this, component);
+        if (spec != null) {
+            action = spec.mLongClickAction;
+        } else {
+            TileRegistry.Entry entry = TileRegistry.get(component.getShortClassName());
+            if (entry != null) {
+                action = entry.mLongClickAction;
+            }
+        }
+        if (action != null) {
+            startActivity(new Intent(action));
         }
     }
 
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.net.ConnectivityManager;
+import android.net.LinkAddress;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.NetworkRequest;
+import android.os.Handler;
+import android.os.Looper;
+import android.system.OsConstants;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Keeps the addresses this device can be reached at over Wi-Fi and Ethernet,
+ * IPv4 first and IPv6 unique local addresses last, and reports them on the main
+ * thread whenever the set changes.
+ */
+public class NetworkAddressTracker {
+
+    public interface Callback {
+        void onAddressesChanged(List<InetAddress> addresses);
+    }
+
+    private static final Comparator<InetAddress> ADDRESS_ORDER = new Comparator<InetAddress>() {
+        @Override
+        public int compare(InetAddress a, InetAddress b) {
+            boolean a4 = a instanceof Inet4Address;
+            boolean b4 = b instanceof Inet4Address;
+            if (a4 != b4) {
+                return a4 ? -1 : 1;
+            }
+            boolean aUla = isUniqueLocal(a);
+            boolean bUla = isUniqueLocal(b);
+            if (aUla != bUla) {
+                return aUla ? 1 : -1;
+            }
+            return a.getHostAddress().compareTo(b.getHostAddress());
+        }
+    };
+
+    private static NetworkAddressTracker sInstance;
+
+    private final ConnectivityManager mConnectivityManager;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final ArrayMap<Network, LinkProperties> mLinkProperties = new ArrayMap<>();
+
+    private Callback mCallback;
+    private boolean mRegistered;
+    private volatile List<InetAddress> mAddresses = Collections.emptyList();
+
+    private final ConnectivityManager.NetworkCallback mNetworkCallback =
+            new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onLinkPropertiesChanged(Network network, LinkProperties linkProperties) {
+            synchronized (mLinkProperties) {
+                mLinkProperties.put(network, linkProperties);
+            }
+            update();
+        }
+
+        @Override
+        public void onLost(Network network) {
+            synchronized (mLinkProperties) {
+                mLinkProperties.remove(network);
+            }
+            update();
+        }
+    };
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mCallback != null) {
+                mCallback.onAddressesChanged(mAddresses);
+            }
+        }
+    };
+
+    private NetworkAddressTracker(ConnectivityManager connectivityManager) {
+        mConnectivityManager = connectivityManager;
+    }
+
+    public static synchronized NetworkAddressTracker get(
+            ConnectivityManager connectivityManager) {
+        if (sInstance == null) {
+            sInstance = new NetworkAddressTracker(connectivityManager);
+        }
+        return sInstance;
+    }
+
+    public void start(Callback callback) {
+        mCallback = callback;
+        if (mRegistered) {
+            return;
+        }
+        final NetworkRequest request = new NetworkRequest.Builder()
+                .addTransportType(NetworkCapabilities.TRANSPORT_WIFI)
+                .addTransportType(NetworkCapabilities.TRANSPORT_ETHERNET)
+                .removeCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                .build();
+        mConnectivityManager.registerNetworkCallback(request, mNetworkCallback);
+        mRegistered = true;
+    }
+
+    public void stop() {
+        mCallback = null;
+        mHandler.removeCallbacks(mDispatchRunnable);
+        if (!mRegistered) {
+            return;
+        }
+        mConnectivityManager.unregisterNetworkCallback(mNetworkCallback);
+        mRegistered = false;
+        synchronized (mLinkProperties) {
+            mLinkProperties.clear();
+        }
+        mAddresses = Collections.emptyList();
+    }
+
+    /**
+     * Returns the current addresses. They are kept while listening, until the
+     * network callback reports a change, and cleared when stopped.
+     */
+    public List<InetAddress> getAddresses() {
+        return mAddresses;
+    }
+
+    @VisibleForTesting
+    int getListenerCount() {
+        return mRegistered ? 1 : 0;
+    }
+
+    /**
+     * Whether an address can be used from the LAN: global addresses, and unique
+     * local ones which {@link LinkAddress#isGlobalPreferred()} leaves out.
+     */
+    private static boolean isReachable(LinkAddress address) {
+        if (address.isGlobalPreferred()) {
+            return true;
+        }
+        final int flags = address.getFlags();
+        return isUniqueLocal(address.getAddress())
+                && (flags & (OsConstants.IFA_F_DADFAILED | OsConstants.IFA_F_DEPRECATED)) == 0
+                && ((flags & OsConstants.IFA_F_TENTATIVE) == 0
+                        || (flags & OsConstants.IFA_F_OPTIMISTIC) != 0);
+    }
+
+    private static boolean isUniqueLocal(InetAddress address) {
+        // fc00::/7
+        return address instanceof Inet6Address
+                && (address.getAddress()[0] & 0xfe) == 0xfc;
+    }
+
+    private void update() {
+        final ArrayList<InetAddress> addresses = new ArrayList<>();
+        synchronized (mLinkProperties) {
+            for (int i = 0; i < mLinkProperties.size(); i++) {
+                for (LinkAddress address : mLinkProperties.valueAt(i).getLinkAddresses()) {
+                    if (isReachable(address)
+                            && !addresses.contains(address.getAddress())) {
+                        addresses.add(address.getAddress());
+                    }
+                }
+            }
+        }
+        Collections.sort(addresses, ADDRESS_ORDER);
+
+        if (!addresses.equals(mAddresses)) {
+            mAddresses = Collections.unmodifiableList(addresses);
+            mHandler.removeCallbacks(mDispatchRunnable);
+            mHandler.post(mDispatchRunnable);
+        }
+    }
+}
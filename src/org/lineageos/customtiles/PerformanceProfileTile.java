@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+public class PerformanceProfileTile extends TileService {
+
+    private static final TileStats sStats = new TileStats("PerformanceProfileTile");
+
+    private final TileRenderer mRenderer = new TileRenderer(this, sStats);
+    private PerformanceProfileTracker mTracker;
+
+    private final PerformanceProfileTracker.Callback mCallback =
+            new PerformanceProfileTracker.Callback() {
+        @Override
+        public void onProfileChanged() {
+            refresh();
+        }
+    };
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mTracker = PerformanceProfileTracker.get(this);
+    }
+
+    @Override
+    public void onStartListening() {
+        super.onStartListening();
+
+        final long start = sStats.begin(TileStats.EVENT_START_LISTENING);
+        mTracker.start(mCallback);
+        mRenderer.refreshAfterRestore(mRefreshRunnable);
+        sStats.end(TileStats.EVENT_START_LISTENING, start);
+    }
+
+    @Override
+    public void onStopListening() {
+        super.onStopListening();
+
+        mTracker.stop(mCallback);
+        mRenderer.cancelRefresh(mRefreshRunnable);
+    }
+
+    @Override
+    public void onClick() {
+        super.onClick();
+
+        final long start = sStats.begin(TileStats.EVENT_CLICK);
+        final int next = mTracker.getNextProfile();
+        if (next != PerformanceProfileTracker.PROFILE_UNKNOWN) {
+            mTracker.setProfile(next);
+            refresh();
+        }
+        sStats.end(TileStats.EVENT_CLICK, start);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        mRenderer.dump(pw);
+    }
+
+    private void refresh() {
+        final long start = sStats.begin(TileStats.EVENT_REFRESH);
+        final int profile = mTracker.getProfile();
+        if (profile != PerformanceProfileTracker.PROFILE_UNKNOWN) {
+            final String name = mTracker.getProfileName(profile);
+            mRenderer.render(Tile.STATE_ACTIVE,
+                    name != null ? name : getString(R.string.perf_profile_label),
+                    R.drawable.ic_perf_profile);
+        }
+        sStats.end(TileStats.EVENT_REFRESH, start);
+    }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.BackgroundThread;
+
+import cyanogenmod.power.PerformanceManager;
+import cyanogenmod.power.PerformanceProfile;
+
+import java.util.ArrayList;
+
+/**
+ * Caches the active power profile. The profiles the device offers are read once
+ * per process and the active profile whenever it is changed by someone else, both
+ * on a background thread. Changes made from the tile are written the same way as
+ * settings, coalesced on the background thread.
+ */
+public class PerformanceProfileTracker implements CoalescingWriter.Target<Object> {
+
+    public interface Callback {
+        void onProfileChanged();
+    }
+
+    public static final int PROFILE_UNKNOWN = -1;
+
+    private static final Object KEY_PROFILE = new Object();
+
+    private static PerformanceProfileTracker sInstance;
+
+    private final Context mContext;
+    private final EventHub mEventHub;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Handler mBgHandler = BackgroundThread.getHandler();
+    private final CoalescingWriter<Object> mWriter = new CoalescingWriter<>(this);
+    private final ArrayList<Callback> mCallbacks = new ArrayList<>();
+
+    private boolean mRegistered;
+    // In the order the framework returns them, which is the order to cycle through
+    private volatile PerformanceProfile[] mProfiles;
+    private volatile int mProfile = PROFILE_UNKNOWN;
+
+    // Only touched from the background thread
+    private PerformanceManager mPerformanceManager;
+
+    private final EventHub.BroadcastSubscriber mSubscriber = new EventHub.BroadcastSubscriber() {
+        @Override
+        public void onReceive(Intent intent) {
+            mReadRunnable.run();
+        }
+    };
+
+    private final Runnable mReadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mWriter.isPending(KEY_PROFILE)) {
+                // Re-read once the write has landed
+                return;
+            }
+            final PerformanceManager performanceManager = getPerformanceManager();
+            if (mProfiles == null) {
+                mProfiles = performanceManager.getPowerProfiles()
+                        .toArray(new PerformanceProfile[0]);
+            }
+            final int profile = performanceManager.getPowerProfile();
+            if (profile != mProfile) {
+                mProfile = profile;
+                mHandler.removeCallbacks(mDispatchRunnable);
+                mHandler.post(mDispatchRunnable);
+            }
+        }
+    };
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = mCallbacks.size() - 1; i >= 0; i--) {
+                mCallbacks.get(i).onProfileChanged();
+            }
+        }
+    };
+
+    private PerformanceProfileTracker(Context context) {
+        mContext = context;
+        mEventHub = EventHub.get(context);
+    }
+
+    public static synchronized PerformanceProfileTracker get(Context context) {
+        if (sInstance == null) {
+            sInstance = new PerformanceProfileTracker(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Adds a callback. Profile changes are observed while there is at least one.
+     */
+    public void start(Callback callback) {
+        mCallbacks.add(callback);
+        if (!mRegistered) {
+            mEventHub.subscribe(PerformanceManager.POWER_PROFILE_CHANGED, mSubscriber);
+            mRegistered = true;
+            mBgHandler.post(mReadRunnable);
+        }
+    }
+
+    public void stop(Callback callback) {
+        mCallbacks.remove(callback);
+        if (mCallbacks.isEmpty() && mRegistered) {
+            mHandler.removeCallbacks(mDispatchRunnable);
+            mEventHub.unsubscribe(PerformanceManager.POWER_PROFILE_CHANGED, mSubscriber);
+            mRegistered = false;
+        }
+    }
+
+    /**
+     * Returns the active profile, or {@link #PROFILE_UNKNOWN} until it has been read.
+     */
+    public int getProfile() {
+        return mProfile;
+    }
+
+    /**
+     * Returns the profile after the active one in the list of profiles, wrapping
+     * around, or {@link #PROFILE_UNKNOWN} until the profiles have been read.
+     */
+    public int getNextProfile() {
+        final PerformanceProfile[] profiles = mProfiles;
+        final int profile = mProfile;
+        if (profiles == null || profiles.length == 0 || profile == PROFILE_UNKNOWN) {
+            return PROFILE_UNKNOWN;
+        }
+        // An active profile missing from the list starts the cycle over
+        int next = 0;
+        for (int i = 0; i < profiles.length; i++) {
+            if (profiles[i].getId() == profile) {
+                next = (i + 1) % profiles.length;
+                break;
+            }
+        }
+        return profiles[next].getId();
+    }
+
+    /**
+     * Returns the name of a profile, or null if there is no name for it.
+     */
+    public String getProfileName(int profile) {
+        final PerformanceProfile[] profiles = mProfiles;
+        if (profiles != null) {
+            for (PerformanceProfile entry : profiles) {
+                if (entry.getId() == profile) {
+                    return entry.getName();
+                }
+            }
+        }
+        return null;
+    }
+
+    public void setProfile(int profile) {
+        mProfile = profile;
+        mWriter.submit(KEY_PROFILE, profile);
+    }
+
+    @Override
+    public void write(Object key, int value) {
+        getPerformanceManager().setPowerProfile(value);
+    }
+
+    @Override
+    public void onWritesFinished(Object key) {
+        // The profile may have been refused, show what is actually applied
+        mBgHandler.post(mReadRunnable);
+    }
+
+    private PerformanceManager getPerformanceManager() {
+        if (mPerformanceManager == null) {
+            mPerformanceManager = PerformanceManager.getInstance(mContext);
+        }
+        return mPerformanceManager;
+    }
+
+    @VisibleForTesting
+    int getListenerCount() {
+        return mCallbacks.size();
+    }
+}
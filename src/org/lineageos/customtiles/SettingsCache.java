@@ -0,0 +1,431 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.app.ActivityManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.ArrayMap;
+import android.util.LruCache;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import cyanogenmod.providers.CMSettings;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Process-wide cache of the settings read by the tiles. Each key subscribes to its
+ * URI through {@link EventHub} the first time it is read, and a change only
+ * invalidates that key.
+ *
+ * Values are cached per user, for the last {@link #MAX_CACHED_USERS} users that
+ * were read, and read for the current user. Observers cover all users, so values
+ * cached for another user stay valid across user switches; a switch only makes
+ * the listeners refresh, and removing a user drops its values.
+ *
+ * Writes update the cached value immediately and are applied on the background
+ * thread, coalesced per key and user. While a write is pending the observer keeps
+ * the optimistic value; once it lands the key is re-read to reconcile.
+ */
+public class SettingsCache implements CoalescingWriter.Target<SettingsCache.Entry> {
+
+    public static final int NAMESPACE_GLOBAL = 0;
+    public static final int NAMESPACE_SECURE = 1;
+    public static final int NAMESPACE_CM_SECURE = 2;
+    public static final int NAMESPACE_SYSTEM = 3;
+    public static final int NAMESPACE_CM_GLOBAL = 4;
+    public static final int NAMESPACE_CM_SYSTEM = 5;
+
+    // Includes the bucket holding the global namespaces
+    private static final int MAX_CACHED_USERS = 4;
+
+    private static final ArrayMap<String, Key> sKeys = new ArrayMap<>();
+
+    public static final Key ADB_ENABLED =
+            getKey(NAMESPACE_GLOBAL, Settings.Global.ADB_ENABLED, 0);
+    public static final Key ADB_PORT =
+            getKey(NAMESPACE_CM_SECURE, CMSettings.Secure.ADB_PORT, 0);
+
+    private static SettingsCache sInstance;
+
+    private final ContentResolver mResolver;
+    private final EventHub mEventHub;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Values by user, global namespaces are cached under USER_ALL
+    private final LruCache<Integer, ArrayMap<Key, Entry>> mUsers =
+            new LruCache<>(MAX_CACHED_USERS);
+    // Keys with an observer, and the runnable notifying the listeners of each
+    private final ArrayMap<Key, Runnable> mObservedKeys = new ArrayMap<>();
+    private final ArrayList<Listener> mListeners = new ArrayList<>();
+    private final CoalescingWriter<Entry> mWriter = new CoalescingWriter<>(this);
+
+    private volatile int mCurrentUser;
+
+    private int mProviderReads;
+    private int mCacheHits;
+
+    public interface Listener {
+        void onSettingChanged(Key key);
+    }
+
+    /**
+     * A setting and the value read when it is not set. Keys are interned by
+     * {@link #getKey}, so they can be compared by identity.
+     */
+    public static final class Key {
+        final int mNamespace;
+        final String mName;
+        final int mDefault;
+
+        final Uri mUri;
+
+        private Key(int namespace, String name, int def) {
+            mNamespace = namespace;
+            mName = name;
+            mDefault = def;
+            mUri = getUriFor(namespace, name);
+        }
+    }
+
+    static final class Entry {
+        final Key mKey;
+        final int mUserId;
+        boolean mValid;
+        int mValue;
+
+        Entry(Key key, int userId) {
+            mKey = key;
+            mUserId = userId;
+        }
+    }
+
+    private final EventHub.BroadcastSubscriber mUserSubscriber =
+            new EventHub.BroadcastSubscriber() {
+        @Override
+        public void onReceive(Intent intent) {
+            final int userId = intent.getIntExtra(Intent.EXTRA_USER_HANDLE,
+                    UserHandle.USER_NULL);
+            if (Intent.ACTION_USER_SWITCHED.equals(intent.getAction())) {
+                mCurrentUser = userId;
+                // Values of the new user are cached or read lazily, the tiles
+                // just need to show them
+                synchronized (mObservedKeys) {
+                    for (int i = 0; i < mObservedKeys.size(); i++) {
+                        postDispatch(mObservedKeys.valueAt(i));
+                    }
+                }
+            } else if (Intent.ACTION_USER_REMOVED.equals(intent.getAction())) {
+                mUsers.remove(userId);
+            }
+        }
+    };
+
+    private SettingsCache(Context context) {
+        mResolver = context.getContentResolver();
+        mEventHub = EventHub.get(context);
+        mCurrentUser = ActivityManager.getCurrentUser();
+        mEventHub.subscribe(Intent.ACTION_USER_SWITCHED, mUserSubscriber);
+        mEventHub.subscribe(Intent.ACTION_USER_REMOVED, mUserSubscriber);
+    }
+
+    public static synchronized SettingsCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new SettingsCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the key for a setting, creating it the first time.
+     */
+    public static Key getKey(int namespace, String name, int def) {
+        final String id = namespace + "/" + name + "/" + def;
+        synchronized (sKeys) {
+            Key key = sKeys.get(id);
+            if (key == null) {
+                key = new Key(namespace, name, def);
+                sKeys.put(id, key);
+            }
+            return key;
+        }
+    }
+
+    /**
+     * Parses a namespace name as used in toggle tile specs, or returns -1.
+     */
+    public static int parseNamespace(String namespace) {
+        switch (namespace) {
+            case "global":
+                return NAMESPACE_GLOBAL;
+            case "secure":
+                return NAMESPACE_SECURE;
+            case "system":
+                return NAMESPACE_SYSTEM;
+            case "cm_global":
+                return NAMESPACE_CM_GLOBAL;
+            case "cm_secure":
+                return NAMESPACE_CM_SECURE;
+            case "cm_system":
+                return NAMESPACE_CM_SYSTEM;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the value for the current user.
+     */
+    public int getInt(Key key) {
+        return getInt(key, null);
+    }
+
+    /**
+     * Returns the value for the current user and counts the read in the tile's stats.
+     */
+    public int getInt(Key key, TileStats stats) {
+        final Entry entry = getEntry(key, mCurrentUser);
+        final boolean fromProvider;
+        final int value;
+        synchronized (entry) {
+            fromProvider = !entry.mValid;
+            if (fromProvider) {
+                entry.mValue = readInt(key, entry.mUserId);
+                entry.mValid = true;
+            }
+            value = entry.mValue;
+        }
+        countRead(fromProvider);
+        if (stats != null) {
+            stats.countSettingsRead(fromProvider);
+        }
+        return value;
+    }
+
+    /**
+     * Updates the cached value for the current user right away and writes it on the
+     * background thread.
+     */
+    public void putIntAsync(Key key, int value) {
+        putIntForUserAsync(key, value, UserHandle.USER_CURRENT);
+    }
+
+    public void putIntForUserAsync(Key key, int value, int userId) {
+        final Entry entry = getEntry(key,
+                userId == UserHandle.USER_CURRENT ? mCurrentUser : userId);
+        synchronized (entry) {
+            entry.mValue = value;
+            entry.mValid = true;
+        }
+        mWriter.submit(entry, value);
+    }
+
+    @Override
+    public void write(Entry entry, int value) {
+        final Key key = entry.mKey;
+        final int userId = entry.mUserId;
+        switch (key.mNamespace) {
+            case NAMESPACE_GLOBAL:
+                Settings.Global.putInt(mResolver, key.mName, value);
+                break;
+            case NAMESPACE_SECURE:
+                Settings.Secure.putIntForUser(mResolver, key.mName, value, userId);
+                break;
+            case NAMESPACE_CM_SECURE:
+                CMSettings.Secure.putIntForUser(mResolver, key.mName, value, userId);
+                break;
+            case NAMESPACE_SYSTEM:
+                Settings.System.putIntForUser(mResolver, key.mName, value, userId);
+                break;
+            case NAMESPACE_CM_GLOBAL:
+                CMSettings.Global.putInt(mResolver, key.mName, value);
+                break;
+            case NAMESPACE_CM_SYSTEM:
+                CMSettings.System.putIntForUser(mResolver, key.mName, value, userId);
+                break;
+        }
+    }
+
+    @Override
+    public void onWritesFinished(Entry entry) {
+        synchronized (entry) {
+            entry.mValid = false;
+        }
+        final Runnable dispatch;
+        synchronized (mObservedKeys) {
+            dispatch = mObservedKeys.get(entry.mKey);
+        }
+        postDispatch(dispatch);
+    }
+
+    public void addListener(Listener listener) {
+        synchronized (mListeners) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    @VisibleForTesting
+    int getListenerCount() {
+        synchronized (mListeners) {
+            return mListeners.size();
+        }
+    }
+
+    // Reads of different entries hold different locks
+    private synchronized void countRead(boolean fromProvider) {
+        if (fromProvider) {
+            mProviderReads++;
+        } else {
+            mCacheHits++;
+        }
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("SettingsCache:");
+        pw.println("  providerReads=" + mProviderReads + " cacheHits=" + mCacheHits
+                + " keys=" + mObservedKeys.size() + " users=" + mUsers.size()
+                + " currentUser=" + mCurrentUser);
+        mWriter.dump("  writes: ", pw);
+    }
+
+    private Entry getEntry(Key key, int userId) {
+        observe(key);
+        final int bucket = isGlobal(key) ? UserHandle.USER_ALL : userId;
+        synchronized (mUsers) {
+            ArrayMap<Key, Entry> entries = mUsers.get(bucket);
+            if (entries == null) {
+                entries = new ArrayMap<>();
+                mUsers.put(bucket, entries);
+            }
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(key, userId);
+                entries.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    private void observe(final Key key) {
+        final Runnable dispatch;
+        synchronized (mObservedKeys) {
+            if (mObservedKeys.containsKey(key)) {
+                return;
+            }
+            dispatch = new Runnable() {
+                @Override
+                public void run() {
+                    dispatchChanged(key);
+                }
+            };
+            mObservedKeys.put(key, dispatch);
+        }
+        mEventHub.subscribe(key.mUri, new EventHub.UriSubscriber() {
+            @Override
+            public void onChange(Uri uri, int userId) {
+                final int bucket = isGlobal(key) ? UserHandle.USER_ALL : userId;
+                final Entry entry;
+                synchronized (mUsers) {
+                    final ArrayMap<Key, Entry> entries = mUsers.get(bucket);
+                    entry = entries != null ? entries.get(key) : null;
+                }
+                if (entry != null) {
+                    if (mWriter.isPending(entry)) {
+                        // Our own write, or one it will overwrite
+                        return;
+                    }
+                    synchronized (entry) {
+                        entry.mValid = false;
+                    }
+                }
+                if (bucket == UserHandle.USER_ALL || userId == mCurrentUser) {
+                    postDispatch(dispatch);
+                }
+            }
+        });
+    }
+
+    private void postDispatch(Runnable dispatch) {
+        mHandler.removeCallbacks(dispatch);
+        mHandler.post(dispatch);
+    }
+
+    private void dispatchChanged(Key key) {
+        final Listener[] listeners;
+        synchronized (mListeners) {
+            listeners = mListeners.toArray(new Listener[mListeners.size()]);
+        }
+        for (Listener listener : listeners) {
+            listener.onSettingChanged(key);
+        }
+    }
+
+    private int readInt(Key key, int userId) {
+        switch (key.mNamespace) {
+            case NAMESPACE_GLOBAL:
+                return Settings.Global.getInt(mResolver, key.mName, key.mDefault);
+            case NAMESPACE_SECURE:
+                return Settings.Secure.getIntForUser(mResolver, key.mName, key.mDefault,
+                        userId);
+            case NAMESPACE_CM_SECURE:
+                return CMSettings.Secure.getIntForUser(mResolver, key.mName, key.mDefault,
+                        userId);
+            case NAMESPACE_SYSTEM:
+                return Settings.System.getIntForUser(mResolver, key.mName, key.mDefault,
+                        userId);
+            case NAMESPACE_CM_GLOBAL:
+                return CMSettings.Global.getInt(mResolver, key.mName, key.mDefault);
+            case NAMESPACE_CM_SYSTEM:
+                return CMSettings.System.getIntForUser(mResolver, key.mName, key.mDefault,
+                        userId);
+        }
+        return key.mDefault;
+    }
+
+    private static boolean isGlobal(Key key) {
+        return key.mNamespace == NAMESPACE_GLOBAL || key.mNamespace == NAMESPACE_CM_GLOBAL;
+    }
+
+    private static Uri getUriFor(int namespace, String name) {
+        switch (namespace) {
+            case NAMESPACE_GLOBAL:
+                return Settings.Global.getUriFor(name);
+            case NAMESPACE_SECURE:
+                return Settings.Secure.getUriFor(name);
+            case NAMESPACE_CM_SECURE:
+                return CMSettings.Secure.getUriFor(name);
+            case NAMESPACE_SYSTEM:
+                return Settings.System.getUriFor(name);
+            case NAMESPACE_CM_GLOBAL:
+                return CMSettings.Global.getUriFor(name);
+            case NAMESPACE_CM_SYSTEM:
+                return CMSettings.System.getUriFor(name);
+        }
+        throw new IllegalArgumentException("Unknown namespace " + namespace);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.content.res.XmlResourceParser;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import org.lineageos.customtiles.core.SettingToggle;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+
+/**
+ * Describes a tile toggling an integer setting. Specs are declared in XML and
+ * referenced from the tile's service declaration:
+ *
+ * <pre>
+ * &lt;meta-data android:name="org.lineageos.customtiles.SETTINGS_TOGGLE"
+ *     android:resource="@xml/toggle_heads_up" /&gt;
+ *
+ * &lt;settings-toggle
+ *     namespace="global"
+ *     key="heads_up_notifications_enabled"
+ *     onValue="1"
+ *     offValue="0"
+ *     default="0"
+ *     iconOn="@drawable/ic_heads_up_on"
+ *     iconOff="@drawable/ic_heads_up_off"
+ *     longClickAction="android.settings.NOTIFICATION_SETTINGS" /&gt;
+ * </pre>
+ *
+ * The namespace is one of global, secure, system, cm_global, cm_secure and
+ * cm_system. Specs are parsed once per process; the key, toggle and icons are
+ * resolved at that point so refreshing the tile costs no more than a hand
+ * written one.
+ */
+public class SettingsToggleSpec {
+    private static final String TAG = "SettingsToggleSpec";
+
+    public static final String META_DATA_SETTINGS_TOGGLE =
+            "org.lineageos.customtiles.SETTINGS_TOGGLE";
+
+    private static final String TAG_SETTINGS_TOGGLE = "settings-toggle";
+
+    private static final ArrayMap<ComponentName, SettingsToggleSpec> sSpecs = new ArrayMap<>();
+
+    public final SettingsCache.Key mKey;
+    public final SettingToggle mToggle;
+    public final int mIconOn;
+    public final int mIconOff;
+    /** Settings action started on long click, or null. */
+    public final String mLongClickAction;
+
+    private SettingsToggleSpec(SettingsCache.Key key, SettingToggle toggle, int iconOn,
+            int iconOff, String longClickAction) {
+        mKey = key;
+        mToggle = toggle;
+        mIconOn = iconOn;
+        mIconOff = iconOff;
+        mLongClickAction = longClickAction;
+    }
+
+    /**
+     * Returns the spec declared by a tile service, or null if it has none or it
+     * could not be parsed.
+     */
+    public static SettingsToggleSpec get(Context context, ComponentName component) {
+        synchronized (sSpecs) {
+            if (sSpecs.containsKey(component)) {
+                return sSpecs.get(component);
+            }
+        }
+        final SettingsToggleSpec spec = load(context, component);
+        if (spec != null) {
+            TileRenderer.getIcon(context, spec.mIconOn);
+            TileRenderer.getIcon(context, spec.mIconOff);
+        }
+        synchronized (sSpecs) {
+            sSpecs.put(component, spec);
+        }
+        return spec;
+    }
+
+    private static SettingsToggleSpec load(Context context, ComponentName component) {
+        final PackageManager pm = context.getPackageManager();
+        final ServiceInfo info;
+        try {
+            info = pm.getServiceInfo(component, PackageManager.GET_META_DATA
+                    | PackageManager.MATCH_DISABLED_COMPONENTS);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+
+        try (XmlResourceParser parser = info.loadXmlMetaData(pm, META_DATA_SETTINGS_TOGGLE)) {
+            if (parser == null) {
+                return null;
+            }
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT
+                    && type != XmlPullParser.START_TAG) {
+            }
+            if (type != XmlPullParser.START_TAG
+                    || !TAG_SETTINGS_TOGGLE.equals(parser.getName())) {
+                Log.w(TAG, component.flattenToShortString() + ": expected <"
+                        + TAG_SETTINGS_TOGGLE + ">");
+                return null;
+            }
+            return parse(component, parser);
+        } catch (XmlPullParserException | IOException e) {
+            Log.w(TAG, "Unable to parse spec of " + component.flattenToShortString(), e);
+            return null;
+        }
+    }
+
+    private static SettingsToggleSpec parse(ComponentName component, XmlResourceParser parser) {
+        final String namespaceName = parser.getAttributeValue(null, "namespace");
+        final int namespace = namespaceName != null
+                ? SettingsCache.parseNamespace(namespaceName) : -1;
+        final String name = parser.getAttributeValue(null, "key");
+        final int iconOn = parser.getAttributeResourceValue(null, "iconOn", 0);
+        final int iconOff = parser.getAttributeResourceValue(null, "iconOff", iconOn);
+        if (namespace < 0 || name == null || iconOn == 0) {
+            Log.w(TAG, component.flattenToShortString()
+                    + ": namespace, key and iconOn are required");
+            return null;
+        }
+
+        final int onValue = parser.getAttributeIntValue(null, "onValue", 1);
+        final int offValue = parser.getAttributeIntValue(null, "offValue", 0);
+        final int def = parser.getAttributeIntValue(null, "default", offValue);
+        return new SettingsToggleSpec(SettingsCache.getKey(namespace, name, def),
+                new SettingToggle(onValue, offValue), iconOn, iconOff,
+                parser.getAttributeValue(null, "longClickAction"));
+    }
+}
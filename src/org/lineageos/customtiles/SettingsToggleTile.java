@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.content.ComponentName;
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+import android.util.ArrayMap;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+/**
+ * A tile toggling the integer setting described by its {@link SettingsToggleSpec}.
+ * A new toggle only needs an empty subclass, since each service needs its own
+ * class, plus its manifest declaration and spec.
+ */
+public class SettingsToggleTile extends TileService {
+
+    private static final ArrayMap<Class<?>, TileStats> sStats = new ArrayMap<>();
+
+    private TileStats mStats;
+    private TileRenderer mRenderer;
+    private SettingsCache mSettingsCache;
+    private SettingsToggleSpec mSpec;
+
+    private final SettingsCache.Listener mSettingsListener = new SettingsCache.Listener() {
+        @Override
+        public void onSettingChanged(SettingsCache.Key key) {
+            if (key == mSpec.mKey) {
+                refresh();
+            }
+        }
+    };
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    private static TileStats getStats(Class<?> cls) {
+        synchronized (sStats) {
+            TileStats stats = sStats.get(cls);
+            if (stats == null) {
+                stats = new TileStats(cls.getSimpleName());
+                sStats.put(cls, stats);
+            }
+            return stats;
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mStats = getStats(getClass());
+        mRenderer = new TileRenderer(this, mStats);
+        mSettingsCache = SettingsCache.get(this);
+        mSpec = SettingsToggleSpec.get(this, new ComponentName(this, getClass()));
+    }
+
+    @Override
+    public void onStartListening() {
+        super.onStartListening();
+
+        if (mSpec == null) {
+            return;
+        }
+        final long start = mStats.begin(TileStats.EVENT_START_LISTENING);
+        mSettingsCache.addListener(mSettingsListener);
+        mRenderer.refreshAfterRestore(mRefreshRunnable);
+        mStats.end(TileStats.EVENT_START_LISTENING, start);
+    }
+
+    @Override
+    public void onStopListening() {
+        super.onStopListening();
+
+        if (mSpec == null) {
+            return;
+        }
+        mSettingsCache.removeListener(mSettingsListener);
+        mRenderer.cancelRefresh(mRefreshRunnable);
+    }
+
+    @Override
+    public void onClick() {
+        super.onClick();
+
+        if (mSpec == null) {
+            return;
+        }
+        final long start = mStats.begin(TileStats.EVENT_CLICK);
+        mSettingsCache.putIntAsync(mSpec.mKey, mSpec.mToggle.getToggledValue(
+                mSpec.mToggle.isOn(mSettingsCache.getInt(mSpec.mKey, mStats))));
+        refresh();
+        mStats.end(TileStats.EVENT_CLICK, start);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        if (mRenderer != null) {
+            mRenderer.dump(pw);
+        }
+    }
+
+    private void refresh() {
+        final long start = mStats.begin(TileStats.EVENT_REFRESH);
+        if (mSpec.mToggle.isOn(mSettingsCache.getInt(mSpec.mKey, mStats))) {
+            mRenderer.render(Tile.STATE_ACTIVE, null, mSpec.mIconOn);
+        } else {
+            mRenderer.render(Tile.STATE_INACTIVE, null, mSpec.mIconOff);
+        }
+        mStats.end(TileStats.EVENT_REFRESH, start);
+    }
+
+}
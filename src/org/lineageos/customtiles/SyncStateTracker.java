@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.content.ContentResolver;
+import android.content.SyncStatusObserver;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.os.BackgroundThread;
+
+import java.util.ArrayList;
+
+/**
+ * Caches the master sync state and whether any sync is running. Sync manager
+ * callbacks are coalesced and the state is re-read on a background thread. The
+ * sync manager is only observed while a tile is listening, so background syncs
+ * do not wake the process otherwise.
+ * Toggling updates the state immediately and the write is coalesced the same
+ * way as settings writes.
+ */
+public class SyncStateTracker implements CoalescingWriter.Target<Object> {
+
+    public interface Callback {
+        void onSyncStateChanged();
+    }
+
+    private static final long COALESCE_DELAY_MS = 100;
+    private static final Object KEY_MASTER_SYNC = new Object();
+
+    private static SyncStateTracker sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Handler mBgHandler = BackgroundThread.getHandler();
+
+    private final CoalescingWriter<Object> mWriter = new CoalescingWriter<>(this);
+    private final ArrayList<Callback> mCallbacks = new ArrayList<>();
+    private Object mStatusHandle;
+
+    private volatile boolean mLoaded;
+    private volatile boolean mMasterSyncEnabled;
+    private volatile boolean mSyncActive;
+
+    private final SyncStatusObserver mObserver = new SyncStatusObserver() {
+        @Override
+        public void onStatusChanged(int which) {
+            mBgHandler.removeCallbacks(mReadRunnable);
+            mBgHandler.postDelayed(mReadRunnable, COALESCE_DELAY_MS);
+        }
+    };
+
+    private final Runnable mReadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (mWriter.isPending(KEY_MASTER_SYNC)) {
+                // Re-read once the write has landed
+                return;
+            }
+            boolean masterSyncEnabled = ContentResolver.getMasterSyncAutomatically();
+            boolean syncActive = masterSyncEnabled
+                    && !ContentResolver.getCurrentSyncs().isEmpty();
+            if (mLoaded && masterSyncEnabled == mMasterSyncEnabled
+                    && syncActive == mSyncActive) {
+                return;
+            }
+            mMasterSyncEnabled = masterSyncEnabled;
+            mSyncActive = syncActive;
+            mLoaded = true;
+            postChanged();
+        }
+    };
+
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = mCallbacks.size() - 1; i >= 0; i--) {
+                mCallbacks.get(i).onSyncStateChanged();
+            }
+        }
+    };
+
+    private SyncStateTracker() {
+    }
+
+    public static synchronized SyncStateTracker get() {
+        if (sInstance == null) {
+            sInstance = new SyncStateTracker();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Adds a callback. The sync manager is observed while there is at least one.
+     */
+    public void start(Callback callback) {
+        mCallbacks.add(callback);
+        if (mStatusHandle == null) {
+            mStatusHandle = ContentResolver.addStatusChangeListener(
+                    ContentResolver.SYNC_OBSERVER_TYPE_SETTINGS
+                            | ContentResolver.SYNC_OBSERVER_TYPE_ACTIVE, mObserver);
+            mBgHandler.post(mReadRunnable);
+        }
+    }
+
+    public void stop(Callback callback) {
+        mCallbacks.remove(callback);
+        if (mCallbacks.isEmpty() && mStatusHandle != null) {
+            mHandler.removeCallbacks(mDispatchRunnable);
+            ContentResolver.removeStatusChangeListener(mStatusHandle);
+            mStatusHandle = null;
+        }
+    }
+
+    /**
+     * Whether a state has been read yet. Until then the getters return false.
+     */
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    public boolean isMasterSyncEnabled() {
+        return mMasterSyncEnabled;
+    }
+
+    public boolean isSyncActive() {
+        return mSyncActive;
+    }
+
+    public void setMasterSyncEnabled(boolean enabled) {
+        mMasterSyncEnabled = enabled;
+        mSyncActive = false;
+        mWriter.submit(KEY_MASTER_SYNC, enabled ? 1 : 0);
+    }
+
+    @Override
+    public void write(Object key, int value) {
+        ContentResolver.setMasterSyncAutomatically(value != 0);
+    }
+
+    @Override
+    public void onWritesFinished(Object key) {
+        mBgHandler.removeCallbacks(mReadRunnable);
+        mBgHandler.postDelayed(mReadRunnable, COALESCE_DELAY_MS);
+    }
+
+    private void postChanged() {
+        mHandler.removeCallbacks(mDispatchRunnable);
+        mHandler.post(mDispatchRunnable);
+    }
+
+    @VisibleForTesting
+    int getListenerCount() {
+        return mCallbacks.size();
+    }
+}
@@ -15,38 +15,83 @@
  */
 package org.lineageos.customtiles;
 
-import android.content.ContentResolver;
-import android.graphics.drawable.Icon;
 import android.service.quicksettings.Tile;
 import android.service.quicksettings.TileService;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class SyncTile extends TileService {
 
+    private static final TileStats sStats = new TileStats("SyncTile");
+
+    private final TileRenderer mRenderer = new TileRenderer(this, sStats);
+    private final SyncStateTracker mTracker = SyncStateTracker.get();
+
+    private final SyncStateTracker.Callback mCallback = new SyncStateTracker.Callback() {
+        @Override
+        public void onSyncStateChanged() {
+            refresh();
+        }
+    };
+
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
     @Override
     public void onStartListening() {
         super.onStartListening();
 
-        refresh();
+        final long start = sStats.begin(TileStats.EVENT_START_LISTENING);
+        mTracker.start(mCallback);
+        mRenderer.refreshAfterRestore(mRefreshRunnable);
+        sStats.end(TileStats.EVENT_START_LISTENING, start);
+    }
+
+    @Override
+    public void onStopListening() {
+        super.onStopListening();
+
+        mTracker.stop(mCallback);
+        mRenderer.cancelRefresh(mRefreshRunnable);
     }
 
     @Override
     public void onClick() {
         super.onClick();
 
-        ContentResolver.setMasterSyncAutomatically(getQsTile().getState() == Tile.STATE_INACTIVE);
-        refresh();
+        final long start = sStats.begin(TileStats.EVENT_CLICK);
+        if (mTracker.isLoaded()) {
+            mTracker.setMasterSyncEnabled(!mTracker.isMasterSyncEnabled());
+            refresh();
+        }
+        sStats.end(TileStats.EVENT_CLICK, start);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        mRenderer.dump(pw);
     }
 
     private void refresh() {
-        boolean enabled = ContentResolver.getMasterSyncAutomatically();
-        if (enabled) {
-            getQsTile().setIcon(Icon.createWithResource(this, R.drawable.ic_sync_on));
-            getQsTile().setState(Tile.STATE_ACTIVE);
+        final long start = sStats.begin(TileStats.EVENT_REFRESH);
+        if (!mTracker.isLoaded()) {
+            // Nothing to show until the first state has been read
+        } else if (mTracker.isSyncActive()) {
+            mRenderer.render(Tile.STATE_ACTIVE, getString(R.string.sync_active_label),
+                    R.drawable.ic_sync_on);
+        } else if (mTracker.isMasterSyncEnabled()) {
+            mRenderer.render(Tile.STATE_ACTIVE, getString(R.string.sync_label),
+                    R.drawable.ic_sync_on);
         } else {
-            getQsTile().setIcon(Icon.createWithResource(this, R.drawable.ic_sync_off));
-            getQsTile().setState(Tile.STATE_INACTIVE);
+            mRenderer.render(Tile.STATE_INACTIVE, getString(R.string.sync_label),
+                    R.drawable.ic_sync_off);
         }
-        getQsTile().updateTile();
+        sStats.end(TileStats.EVENT_REFRESH, start);
     }
 
 }
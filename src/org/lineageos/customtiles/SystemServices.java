@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.content.Context;
+import android.hardware.SensorManager;
+import android.media.AudioManager;
+import android.net.ConnectivityManager;
+import android.os.PowerManager;
+import android.view.WindowManager;
+
+/**
+ * Process-wide system service handles. Each service context would otherwise look
+ * up and cache its own manager; these are fetched once from the application
+ * context, normally ahead of time by {@link CustomTilesApplication}.
+ */
+public final class SystemServices {
+
+    private static AudioManager sAudioManager;
+    private static ConnectivityManager sConnectivityManager;
+    private static PowerManager sPowerManager;
+    private static SensorManager sSensorManager;
+    private static WindowManager sWindowManager;
+
+    private SystemServices() {
+    }
+
+    public static synchronized AudioManager getAudioManager(Context context) {
+        if (sAudioManager == null) {
+            sAudioManager = (AudioManager) context.getApplicationContext()
+                    .getSystemService(Context.AUDIO_SERVICE);
+        }
+        return sAudioManager;
+    }
+
+    public static synchronized ConnectivityManager getConnectivityManager(Context context) {
+        if (sConnectivityManager == null) {
+            sConnectivityManager = (ConnectivityManager) context.getApplicationContext()
+                    .getSystemService(Context.CONNECTIVITY_SERVICE);
+        }
+        return sConnectivityManager;
+    }
+
+    public static synchronized PowerManager getPowerManager(Context context) {
+        if (sPowerManager == null) {
+            sPowerManager = (PowerManager) context.getApplicationContext()
+                    .getSystemService(Context.POWER_SERVICE);
+        }
+        return sPowerManager;
+    }
+
+    public static synchronized SensorManager getSensorManager(Context context) {
+        if (sSensorManager == null) {
+            sSensorManager = (SensorManager) context.getApplicationContext()
+                    .getSystemService(Context.SENSOR_SERVICE);
+        }
+        return sSensorManager;
+    }
+
+    public static synchronized WindowManager getWindowManager(Context context) {
+        if (sWindowManager == null) {
+            sWindowManager = (WindowManager) context.getApplicationContext()
+                    .getSystemService(Context.WINDOW_SERVICE);
+        }
+        return sWindowManager;
+    }
+
+    static void preload(Context context) {
+        getAudioManager(context);
+        getConnectivityManager(context);
+        getPowerManager(context);
+        getSensorManager(context);
+    }
+}
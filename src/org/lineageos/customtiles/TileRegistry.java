@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.provider.Settings;
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+import android.util.ArrayMap;
+
+/**
+ * Describes every tile in this package: where a long click goes, which device
+ * capability it needs and the state it shows before knowing better. Used by
+ * {@link MainActivity}, {@link BootReceiver} and {@link TileRenderer}, so a new
+ * tile only needs an entry here besides its manifest declaration.
+ */
+public final class TileRegistry {
+
+    public static final int CAPABILITY_NONE = 0;
+    public static final int CAPABILITY_DOZE = 1 << 0;
+    public static final int CAPABILITY_TETHERING = 1 << 1;
+    public static final int CAPABILITY_POWER_PROFILES = 1 << 2;
+    public static final int CAPABILITY_COMPASS = 1 << 3;
+
+    public static final class Entry {
+        public final Class<? extends TileService> mTileClass;
+        /**
+         * Settings action started on long click, or null. Toggle tiles declare it
+         * in their {@link SettingsToggleSpec} instead.
+         */
+        public final String mLongClickAction;
+        /** Capabilities the device needs for the tile to be enabled. */
+        public final int mCapabilities;
+        /**
+         * Whether the tile is declared active in the manifest and requests its own
+         * updates through {@link ActiveTileJobService}. Only settings toggles can be.
+         */
+        public final boolean mActive;
+        /**
+         * Tile state shown, with the manifest label and icon, until the tile has
+         * rendered its live state for the first time.
+         */
+        public final int mDefaultState;
+
+        Entry(Class<? extends TileService> tileClass, String longClickAction,
+                int capabilities, boolean active, int defaultState) {
+            mTileClass = tileClass;
+            mLongClickAction = longClickAction;
+            mCapabilities = capabilities;
+            mActive = active;
+            mDefaultState = defaultState;
+        }
+    }
+
+    public static final Entry[] TILES = {
+        new Entry(AdbOverNetworkTile.class,
+                null, CAPABILITY_NONE, false,
+                Tile.STATE_INACTIVE),
+        new Entry(AmbientDisplayTile.class,
+                null, CAPABILITY_DOZE, true,
+                Tile.STATE_INACTIVE),
+        new Entry(CaffeineTile.class,
+                null, CAPABILITY_NONE, false,
+                Tile.STATE_INACTIVE),
+        new Entry(CompassTile.class,
+                null, CAPABILITY_COMPASS, false,
+                Tile.STATE_INACTIVE),
+        new Entry(HeadsUpTile.class,
+                null, CAPABILITY_NONE, true,
+                Tile.STATE_INACTIVE),
+        new Entry(PerformanceProfileTile.class,
+                Settings.ACTION_BATTERY_SAVER_SETTINGS, CAPABILITY_POWER_PROFILES, false,
+                Tile.STATE_ACTIVE),
+        new Entry(SyncTile.class,
+                Settings.ACTION_SYNC_SETTINGS, CAPABILITY_NONE, false,
+                Tile.STATE_INACTIVE),
+        new Entry(UsbTetherTile.class,
+                Settings.ACTION_WIRELESS_SETTINGS, CAPABILITY_TETHERING, false,
+                Tile.STATE_INACTIVE),
+        new Entry(VolumePanelTile.class,
+                Settings.ACTION_SOUND_SETTINGS, CAPABILITY_NONE, false,
+                Tile.STATE_ACTIVE),
+    };
+
+    private static final ArrayMap<String, Entry> sEntries = new ArrayMap<>(TILES.length);
+
+    static {
+        for (Entry entry : TILES) {
+            sEntries.put("." + entry.mTileClass.getSimpleName(), entry);
+        }
+    }
+
+    private TileRegistry() {
+    }
+
+    /**
+     * Returns the entry for a tile component's short class name, or null.
+     */
+    public static Entry get(String shortClassName) {
+        return sEntries.get(shortClassName);
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.graphics.drawable.Icon;
+import android.os.Handler;
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import java.io.PrintWriter;
+
+/**
+ * Publishes state to a tile, dropping updates that are identical to the last one
+ * sent to SystemUI. Rendered states are published by {@link TileUpdateScheduler}
+ * on the next frame, so only the latest state of a frame reaches SystemUI. Icons
+ * are created once per resource and shared by all tiles.
+ * Published states and icons, but not labels, are persisted in {@link TileStateStore},
+ * so a new process can show them right away and query the live state afterwards.
+ */
+public class TileRenderer {
+
+    private static final SparseArray<Icon> sIcons = new SparseArray<>();
+
+    private static int sRenderedCount;
+    private static int sSkippedCount;
+
+    private final TileService mService;
+    private final TileStats mStats;
+    private final Handler mHandler = new Handler();
+    private final TileUpdateScheduler mScheduler = TileUpdateScheduler.get();
+
+    // Manifest declaration and label, loaded when first needed
+    private ServiceInfo mServiceInfo;
+    private CharSequence mDefaultLabel;
+
+    private Tile mLastTile;
+    private int mLastState;
+    private CharSequence mLastLabel;
+    private int mLastIconRes;
+
+    private boolean mPending;
+    private int mPendingState;
+    private CharSequence mPendingLabel;
+    private int mPendingIconRes;
+    // Event that rendered the pending state, the update is counted against it
+    private int mPendingEvent;
+
+    private int mRenderedCount;
+    private int mSkippedCount;
+
+    public TileRenderer(TileService service, TileStats stats) {
+        mService = service;
+        mStats = stats;
+    }
+
+    public static Icon getIcon(Context context, int resId) {
+        synchronized (sIcons) {
+            Icon icon = sIcons.get(resId);
+            if (icon == null) {
+                icon = Icon.createWithResource(context.getApplicationContext(), resId);
+                sIcons.put(resId, icon);
+            }
+            return icon;
+        }
+    }
+
+    /**
+     * Runs {@code refresh} to render the live state. On the first session of the
+     * process the stored state is rendered instead and {@code refresh} is posted,
+     * so the tile does not wait for the live queries to show something. A tile
+     * that has nothing to restore shows its registry default state until it
+     * renders its live state.
+     */
+    public void refreshAfterRestore(Runnable refresh) {
+        final TileStateStore.State state =
+                TileStateStore.get(mService).restore(mStats.getName());
+        if (state == null) {
+            if (!mPending && mService.getQsTile() != mLastTile) {
+                renderDefault();
+            }
+            refresh.run();
+            return;
+        }
+        // Published right away, the refresh may keep the main thread busy for a while
+        render(state.mState, null, state.mIconRes);
+        mScheduler.cancel(this);
+        publish();
+        mHandler.post(refresh);
+    }
+
+    /**
+     * Cancels a refresh posted by {@link #refreshAfterRestore}.
+     */
+    public void cancelRefresh(Runnable refresh) {
+        mHandler.removeCallbacks(refresh);
+    }
+
+    /**
+     * Renders the given state. A null label shows the label declared in the manifest.
+     */
+    public void render(int state, CharSequence label, int iconRes) {
+        final boolean same = mPending
+                ? isSame(state, label, iconRes, mPendingState, mPendingLabel, mPendingIconRes)
+                : mService.getQsTile() == mLastTile
+                        && isSame(state, label, iconRes, mLastState, mLastLabel, mLastIconRes);
+        if (same) {
+            mSkippedCount++;
+            sSkippedCount++;
+            if (!mPending) {
+                mStats.onTileCurrent();
+            }
+            return;
+        }
+
+        mPendingState = state;
+        mPendingLabel = label;
+        mPendingIconRes = iconRes;
+        mPendingEvent = mStats.getCurrentEvent();
+        if (!mPending) {
+            mPending = true;
+            mScheduler.schedule(this);
+        }
+    }
+
+    /**
+     * Sends the pending state to SystemUI. Called by {@link TileUpdateScheduler}.
+     */
+    void publish() {
+        if (!mPending) {
+            return;
+        }
+        mPending = false;
+
+        final Tile tile = mService.getQsTile();
+        if (tile == null) {
+            return;
+        }
+        final int state = mPendingState;
+        final CharSequence label = mPendingLabel;
+        final int iconRes = mPendingIconRes;
+        if (tile == mLastTile
+                && isSame(state, label, iconRes, mLastState, mLastLabel, mLastIconRes)) {
+            // Changed back within the frame
+            mSkippedCount++;
+            sSkippedCount++;
+            mStats.onTileCurrent();
+            return;
+        }
+
+        tile.setState(state);
+        tile.setLabel(label != null ? label : getDefaultLabel());
+        tile.setIcon(getIcon(mService, iconRes));
+        tile.updateTile();
+        mStats.onTileUpdated(mPendingEvent);
+        if (sRenderedCount == 0) {
+            CustomTilesApplication.onFirstTileUpdate();
+        }
+
+        // Label only changes, like throughput or countdown text, are not persisted
+        if (mLastTile == null || state != mLastState || iconRes != mLastIconRes) {
+            TileStateStore.get(mService).save(mStats.getName(), state, iconRes);
+        }
+        mLastTile = tile;
+        mLastState = state;
+        mLastLabel = label;
+        mLastIconRes = iconRes;
+        mRenderedCount++;
+        sRenderedCount++;
+    }
+
+    /**
+     * Renders the registry default state with the manifest icon. A refresh that
+     * renders within the same frame replaces it before it is published.
+     */
+    private void renderDefault() {
+        final TileRegistry.Entry entry =
+                TileRegistry.get("." + mService.getClass().getSimpleName());
+        final ServiceInfo info = getServiceInfo();
+        if (entry != null && info != null) {
+            render(entry.mDefaultState, null, info.getIconResource());
+        }
+    }
+
+    private ServiceInfo getServiceInfo() {
+        if (mServiceInfo == null) {
+            try {
+                mServiceInfo = mService.getPackageManager().getServiceInfo(
+                        new ComponentName(mService, mService.getClass()), 0);
+            } catch (PackageManager.NameNotFoundException e) {
+                // Cannot happen for our own running service
+            }
+        }
+        return mServiceInfo;
+    }
+
+    private CharSequence getDefaultLabel() {
+        if (mDefaultLabel == null) {
+            final PackageManager pm = mService.getPackageManager();
+            final ServiceInfo info = getServiceInfo();
+            mDefaultLabel = info != null ? info.loadLabel(pm)
+                    : mService.getApplicationInfo().loadLabel(pm);
+        }
+        return mDefaultLabel;
+    }
+
+    private static boolean isSame(int state, CharSequence label, int iconRes,
+            int otherState, CharSequence otherLabel, int otherIconRes) {
+        return state == otherState && iconRes == otherIconRes
+                && TextUtils.equals(label, otherLabel);
+    }
+
+    public int getRenderedCount() {
+        return mRenderedCount;
+    }
+
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    public static int getTotalRenderedCount() {
+        return sRenderedCount;
+    }
+
+    public static int getTotalSkippedCount() {
+        return sSkippedCount;
+    }
+
+    public void dump(PrintWriter pw) {
+        mStats.dump(pw);
+        pw.println("TileRenderer:");
+        pw.println("  rendered=" + mRenderedCount + " skipped=" + mSkippedCount);
+        pw.println("  process rendered=" + sRenderedCount + " skipped=" + sSkippedCount);
+        SettingsCache.get(mService).dump(pw);
+        EventHub.get(mService).dump(pw);
+        mScheduler.dump(pw);
+        CustomTilesApplication.dump(pw);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.Resources;
+import android.util.ArraySet;
+
+/**
+ * Persists the last state each tile published, so that the first session after the
+ * process starts can show it before the live state has been queried. Each tile is
+ * stored as a single "state/icon" string in device protected storage, and icons by
+ * resource name so that entries survive resource id changes on update. Labels are
+ * not stored: most of them are transient, and a restored tile shows its manifest
+ * label until the live state is rendered.
+ * Tiles that keep a state of their own, rather than showing one, store it here too.
+ */
+public class TileStateStore {
+
+    private static final String PREFS_NAME = "tile_state";
+    private static final char SEPARATOR = '/';
+    private static final String ENABLED_SUFFIX = ".enabled";
+
+    private static TileStateStore sInstance;
+
+    private final Resources mResources;
+    private final String mPackageName;
+    private final SharedPreferences mPrefs;
+    private final ArraySet<String> mRestored = new ArraySet<>();
+
+    public static final class State {
+        public final int mState;
+        public final int mIconRes;
+
+        State(int state, int iconRes) {
+            mState = state;
+            mIconRes = iconRes;
+        }
+    }
+
+    private TileStateStore(Context context) {
+        mResources = context.getResources();
+        mPackageName = context.getPackageName();
+        // Loaded asynchronously, so the first read rarely has to wait for the disk
+        mPrefs = context.createDeviceProtectedStorageContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized TileStateStore get(Context context) {
+        if (sInstance == null) {
+            sInstance = new TileStateStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the stored state of a tile the first time it is asked for in this
+     * process, and null afterwards or if nothing usable was stored.
+     */
+    public State restore(String tile) {
+        synchronized (mRestored) {
+            if (!mRestored.add(tile)) {
+                return null;
+            }
+        }
+        final String value = mPrefs.getString(tile, null);
+        if (value == null) {
+            return null;
+        }
+        final int first = value.indexOf(SEPARATOR);
+        if (first < 0) {
+            return null;
+        }
+        // Entries written by older versions end with the label, which is ignored
+        int end = value.indexOf(SEPARATOR, first + 1);
+        if (end < 0) {
+            end = value.length();
+        }
+        final int iconRes = mResources.getIdentifier(value.substring(first + 1, end),
+                "drawable", mPackageName);
+        if (iconRes == 0) {
+            return null;
+        }
+        try {
+            return new State(Integer.parseInt(value.substring(0, first)), iconRes);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the state and icon a tile just published. Callers only save when
+     * either changed, and the write itself happens asynchronously.
+     */
+    public void save(String tile, int state, int iconRes) {
+        final String value = Integer.toString(state) + SEPARATOR
+                + mResources.getResourceEntryName(iconRes);
+        if (!value.equals(mPrefs.getString(tile, null))) {
+            mPrefs.edit().putString(tile, value).apply();
+        }
+    }
+
+    /**
+     * Returns whether the user turned the tile on, for tiles that own that state.
+     */
+    public boolean isEnabled(String tile) {
+        return mPrefs.getBoolean(tile + ENABLED_SUFFIX, false);
+    }
+
+    public void setEnabled(String tile, boolean enabled) {
+        mPrefs.edit().putBoolean(tile + ENABLED_SUFFIX, enabled).apply();
+    }
+}
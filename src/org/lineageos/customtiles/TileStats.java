@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.os.Trace;
+import android.util.ArrayMap;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+
+/**
+ * Per-tile trace sections and latency histograms, the number of tile updates
+ * caused by each event, and counts of the settings reads and binder calls the tile
+ * makes. Recording does not allocate and is safe from any thread; the results are
+ * printed by the tile's dumpsys output.
+ */
+public class TileStats {
+
+    /** No event is in progress, e.g. for a change delivered by a listener. */
+    public static final int EVENT_NONE = -1;
+    public static final int EVENT_START_LISTENING = 0;
+    public static final int EVENT_CLICK = 1;
+    public static final int EVENT_REFRESH = 2;
+    /**
+     * From onStartListening to the tile showing the state of that session, either
+     * by an update or by a render finding it already shown.
+     */
+    public static final int EVENT_FIRST_UPDATE = 3;
+    private static final int EVENT_COUNT = 4;
+
+    private static final String[] EVENT_NAMES = {
+        "onStartListening", "onClick", "refresh", "firstUpdate",
+    };
+
+    // Upper bounds of each bucket in microseconds, the last bucket is open ended
+    private static final long[] BUCKET_LIMITS_US = {
+        250, 500, 1000, 2000, 4000, 8000, 16000, 32000, 64000,
+    };
+
+    private static final ArrayMap<String, TileStats> sAllStats = new ArrayMap<>();
+
+    private final String mName;
+    private final String[] mSectionNames = new String[EVENT_COUNT];
+    private final int[][] mHistograms = new int[EVENT_COUNT][BUCKET_LIMITS_US.length + 1];
+    private final long[] mTotalNanos = new long[EVENT_COUNT];
+    private final long[] mMaxNanos = new long[EVENT_COUNT];
+    private final int[] mEventUpdates = new int[EVENT_COUNT];
+
+    private long mListeningSince;
+    private int mTileUpdates;
+    private int mSettingsReads;
+    private int mProviderReads;
+    private int mBinderCalls;
+
+    // Outermost event in progress, nested ones such as a refresh run on its behalf
+    private int mCurrentEvent = EVENT_NONE;
+    private int mDepth;
+
+    public TileStats(String name) {
+        mName = name;
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            mSectionNames[i] = name + "." + EVENT_NAMES[i];
+        }
+        synchronized (sAllStats) {
+            sAllStats.put(name, this);
+        }
+    }
+
+    /**
+     * Returns the stats of a tile by name, or null if the tile has not been loaded.
+     */
+    @VisibleForTesting
+    static TileStats get(String name) {
+        synchronized (sAllStats) {
+            return sAllStats.get(name);
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Opens a trace section for the event and returns its start time, to be
+     * passed to {@link #end}.
+     */
+    public long begin(int event) {
+        Trace.beginSection(mSectionNames[event]);
+        final long now = System.nanoTime();
+        synchronized (this) {
+            if (mDepth++ == 0) {
+                mCurrentEvent = event;
+            }
+            if (event == EVENT_START_LISTENING) {
+                mListeningSince = now;
+            }
+        }
+        return now;
+    }
+
+    public void end(int event, long start) {
+        Trace.endSection();
+        synchronized (this) {
+            if (--mDepth == 0) {
+                mCurrentEvent = EVENT_NONE;
+            }
+        }
+        record(event, System.nanoTime() - start);
+    }
+
+    /**
+     * Returns the outermost event in progress, or {@link #EVENT_NONE}.
+     */
+    public synchronized int getCurrentEvent() {
+        return mCurrentEvent;
+    }
+
+    /**
+     * Called when a tile update is sent, with the event that rendered its state.
+     * The update itself usually happens on a later frame, after the event ended.
+     */
+    public void onTileUpdated(int event) {
+        synchronized (this) {
+            mTileUpdates++;
+            if (event != EVENT_NONE) {
+                mEventUpdates[event]++;
+            }
+        }
+        onTileCurrent();
+    }
+
+    /**
+     * Called when the tile shows the rendered state, whether it was published or
+     * skipped as already shown.
+     */
+    public void onTileCurrent() {
+        final long since;
+        synchronized (this) {
+            since = mListeningSince;
+            mListeningSince = 0;
+        }
+        if (since != 0) {
+            record(EVENT_FIRST_UPDATE, System.nanoTime() - since);
+        }
+    }
+
+    /**
+     * Counts a settings read, and whether it had to query the settings provider.
+     */
+    public synchronized void countSettingsRead(boolean fromProvider) {
+        mSettingsReads++;
+        if (fromProvider) {
+            mProviderReads++;
+        }
+    }
+
+    /**
+     * Counts a call into a system service made by the tile itself.
+     */
+    public synchronized void countBinderCall() {
+        mBinderCalls++;
+    }
+
+    public synchronized int getTileUpdates() {
+        return mTileUpdates;
+    }
+
+    public synchronized int getSettingsReads() {
+        return mSettingsReads;
+    }
+
+    public synchronized int getProviderReads() {
+        return mProviderReads;
+    }
+
+    public synchronized int getBinderCalls() {
+        return mBinderCalls;
+    }
+
+    private synchronized void record(int event, long nanos) {
+        final long micros = nanos / 1000;
+        int bucket = 0;
+        while (bucket < BUCKET_LIMITS_US.length && micros >= BUCKET_LIMITS_US[bucket]) {
+            bucket++;
+        }
+        mHistograms[event][bucket]++;
+        mTotalNanos[event] += nanos;
+        if (nanos > mMaxNanos[event]) {
+            mMaxNanos[event] = nanos;
+        }
+    }
+
+    public synchronized void dump(PrintWriter pw) {
+        pw.println(mName + ":");
+        pw.println("  updateTile=" + mTileUpdates + " binderCalls=" + mBinderCalls
+                + " settingsReads=" + mSettingsReads + " providerReads=" + mProviderReads);
+        for (int event = 0; event < EVENT_COUNT; event++) {
+            final int[] histogram = mHistograms[event];
+            int count = 0;
+            for (int n : histogram) {
+                count += n;
+            }
+            pw.print("  " + EVENT_NAMES[event] + ": count=" + count
+                    + " updates=" + mEventUpdates[event]);
+            if (count == 0) {
+                pw.println();
+                continue;
+            }
+            pw.print(" avg=" + (mTotalNanos[event] / count / 1000) + "us");
+            pw.println(" max=" + (mMaxNanos[event] / 1000) + "us");
+            pw.print("   ");
+            for (int bucket = 0; bucket < histogram.length; bucket++) {
+                pw.print(bucket < BUCKET_LIMITS_US.length
+                        ? " <" + BUCKET_LIMITS_US[bucket] + "us:"
+                        : " >=" + BUCKET_LIMITS_US[bucket - 1] + "us:");
+                pw.print(histogram[bucket]);
+            }
+            pw.println();
+        }
+    }
+}
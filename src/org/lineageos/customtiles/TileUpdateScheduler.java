@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+
+/**
+ * Publishes the pending state of every tile in the process once per frame, so an
+ * event that touches several tiles, or one tile several times, results in at most
+ * one update per tile. Flushes on the next Choreographer frame, or after a short
+ * delay if no frame comes, e.g. while the screen is off. Main thread only.
+ */
+public class TileUpdateScheduler {
+
+    // Slightly more than a frame at 60Hz
+    private static final long FALLBACK_DELAY_MS = 20;
+
+    private static TileUpdateScheduler sInstance;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Choreographer mChoreographer = Choreographer.getInstance();
+
+    private ArrayList<TileRenderer> mDirty = new ArrayList<>();
+    private ArrayList<TileRenderer> mFlushing = new ArrayList<>();
+    private boolean mScheduled;
+
+    private int mScheduleCount;
+    private int mFlushCount;
+
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            flush();
+        }
+    };
+
+    private final Runnable mFallbackRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private TileUpdateScheduler() {
+    }
+
+    public static TileUpdateScheduler get() {
+        if (sInstance == null) {
+            sInstance = new TileUpdateScheduler();
+        }
+        return sInstance;
+    }
+
+    /**
+     * Publishes the renderer's pending state with the next flush.
+     */
+    public void schedule(TileRenderer renderer) {
+        mScheduleCount++;
+        if (!mDirty.contains(renderer)) {
+            mDirty.add(renderer);
+        }
+        if (!mScheduled) {
+            mScheduled = true;
+            mChoreographer.postFrameCallback(mFrameCallback);
+            mHandler.postDelayed(mFallbackRunnable, FALLBACK_DELAY_MS);
+        }
+    }
+
+    /**
+     * Drops the renderer from the next flush, when its state was published directly.
+     */
+    public void cancel(TileRenderer renderer) {
+        mDirty.remove(renderer);
+    }
+
+    private void flush() {
+        mScheduled = false;
+        mChoreographer.removeFrameCallback(mFrameCallback);
+        mHandler.removeCallbacks(mFallbackRunnable);
+        mFlushCount++;
+
+        // Renderers scheduled while flushing wait for the next frame
+        final ArrayList<TileRenderer> flushing = mDirty;
+        mDirty = mFlushing;
+        mFlushing = flushing;
+        for (int i = 0; i < flushing.size(); i++) {
+            flushing.get(i).publish();
+        }
+        flushing.clear();
+    }
+
+    public void dump(PrintWriter pw) {
+        pw.println("TileUpdateScheduler:");
+        pw.println("  scheduled=" + mScheduleCount + " flushes=" + mFlushCount
+                + " dirty=" + mDirty.size());
+    }
+}
@@ -15,98 +15,248 @@
  */
 package org.lineageos.customtiles;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
-import android.graphics.drawable.Icon;
 import android.hardware.usb.UsbManager;
 import android.net.ConnectivityManager;
-import android.provider.Settings;
+import android.os.Handler;
 import android.service.quicksettings.Tile;
 import android.service.quicksettings.TileService;
+import android.text.format.Formatter;
 
-import cyanogenmod.providers.CMSettings;
+import com.android.internal.os.BackgroundThread;
+
+import org.lineageos.customtiles.core.UsbTetherMatcher;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+import java.util.ArrayList;
 
 public class UsbTetherTile extends TileService {
 
+    private static final int TARGET_NONE = -1;
+    // Longest time the requested state is shown without tethering catching up
+    private static final long TARGET_TIMEOUT_MS = 15 * 1000;
+
+    private static final TileStats sStats = new TileStats("UsbTetherTile");
+
+    // Configuration changes first, so the matcher is reset before the sticky
+    // tether state is delivered
+    private static final String[] ACTIONS = {
+        Intent.ACTION_CONFIGURATION_CHANGED,
+        ConnectivityManager.ACTION_TETHER_STATE_CHANGED,
+        UsbManager.ACTION_USB_STATE,
+    };
+
+    private static UsbTetherMatcher sMatcher;
+
+    private final TileRenderer mRenderer = new TileRenderer(this, sStats);
+    private final Handler mHandler = new Handler();
+
     private ConnectivityManager mConnectivityManager;
+    private EventHub mEventHub;
+    private InterfaceThroughputTracker mThroughputTracker;
+
+    // Tether state model, only touched on the background thread
+    private ArrayList<String> mActiveIfaces;
+    private boolean mUsbConnected;
 
-    private boolean mUsbTethered = false;
-    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+    private volatile boolean mUsbTethered = false;
+    private volatile String mTetherIface;
+    private volatile int mTarget = TARGET_NONE;
+    private boolean mListening;
+
+    private final EventHub.BroadcastSubscriber mSubscriber = new EventHub.BroadcastSubscriber() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            boolean mUsbConnected = intent.getBooleanExtra(UsbManager.USB_CONNECTED, false);
-            if (mUsbConnected && mConnectivityManager.isTetheringSupported()) {
-                refresh();
-            } else {
-                mUsbTethered = false;
+        public void onReceive(Intent intent) {
+            final String action = intent.getAction();
+            if (ConnectivityManager.ACTION_TETHER_STATE_CHANGED.equals(action)) {
+                mActiveIfaces = intent.getStringArrayListExtra(
+                        ConnectivityManager.EXTRA_ACTIVE_TETHER);
+            } else if (UsbManager.ACTION_USB_STATE.equals(action)) {
+                mUsbConnected = intent.getBooleanExtra(UsbManager.USB_CONNECTED, false);
+            } else if (Intent.ACTION_CONFIGURATION_CHANGED.equals(action)) {
+                // Tethering reloads its interface regexes on configuration changes
+                getMatcher(UsbTetherTile.this).invalidate();
             }
+            updateState();
+        }
+    };
+
+    private final InterfaceThroughputTracker.Callback mThroughputCallback =
+            new InterfaceThroughputTracker.Callback() {
+        @Override
+        public void onThroughputChanged() {
             refresh();
         }
     };
 
+    private final Runnable mRefreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+        }
+    };
+
+    private final Runnable mTargetTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            // Tethering did not follow the request, show the observed state again
+            mTarget = TARGET_NONE;
+            if (mListening) {
+                refresh();
+            }
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mConnectivityManager = SystemServices.getConnectivityManager(this);
+        mEventHub = EventHub.get(this);
+        mThroughputTracker = InterfaceThroughputTracker.get();
+    }
+
     @Override
     public void onStartListening() {
         super.onStartListening();
 
-        mConnectivityManager = (ConnectivityManager)
-                getSystemService(Context.CONNECTIVITY_SERVICE);
-
-        final IntentFilter filter = new IntentFilter();
-        filter.addAction(UsbManager.ACTION_USB_STATE);
-        registerReceiver(mReceiver, filter);
+        final long start = sStats.begin(TileStats.EVENT_START_LISTENING);
+        // Both tether state and USB state are sticky, so the current state is
+        // delivered as soon as we subscribe.
+        for (String action : ACTIONS) {
+            if (mEventHub.subscribe(action, mSubscriber)
+                    && Intent.ACTION_CONFIGURATION_CHANGED.equals(action)) {
+                // Configuration changes were not received in between, and they
+                // are not sticky
+                getMatcher(this).invalidate();
+            }
+        }
 
-        refresh();
+        mListening = true;
+        mRenderer.refreshAfterRestore(mRefreshRunnable);
+        sStats.end(TileStats.EVENT_START_LISTENING, start);
     }
 
     @Override
     public void onStopListening() {
         super.onStopListening();
 
-        unregisterReceiver(mReceiver);
+        for (String action : ACTIONS) {
+            mEventHub.unsubscribe(action, mSubscriber);
+        }
+        mListening = false;
+        mThroughputTracker.stop();
+        mHandler.removeCallbacks(mRefreshRunnable);
+        mRenderer.cancelRefresh(mRefreshRunnable);
     }
 
     @Override
     public void onClick() {
         super.onClick();
 
-        mConnectivityManager.setUsbTethering(!mUsbTethered);
-
+        final long start = sStats.begin(TileStats.EVENT_CLICK);
+        final boolean enable = !(mTarget == TARGET_NONE ? mUsbTethered : mTarget == 1);
+        mTarget = enable ? 1 : 0;
+        mHandler.removeCallbacks(mTargetTimeoutRunnable);
+        mHandler.postDelayed(mTargetTimeoutRunnable, TARGET_TIMEOUT_MS);
         refresh();
-    }
 
-    private void refresh() {
-        String[] tetheredIfaces = mConnectivityManager.getTetheredIfaces();
-        String[] usbRegexs = mConnectivityManager.getTetherableUsbRegexs();
-
-        mUsbTethered = false;
-        for (String s : tetheredIfaces) {
-            for (String regex : usbRegexs) {
-                if (s.matches(regex)) {
-                    mUsbTethered = true;
+        BackgroundThread.getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                sStats.countBinderCall();
+                if (mConnectivityManager.setUsbTethering(enable)
+                        != ConnectivityManager.TETHER_ERROR_NO_ERROR) {
+                    mHandler.removeCallbacks(mTargetTimeoutRunnable);
+                    mTarget = TARGET_NONE;
+                    postRefresh();
                 }
             }
+        });
+        sStats.end(TileStats.EVENT_CLICK, start);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        mRenderer.dump(pw);
+    }
+
+    private static synchronized UsbTetherMatcher getMatcher(Context context) {
+        if (sMatcher == null) {
+            final ConnectivityManager connectivityManager =
+                    SystemServices.getConnectivityManager(context);
+            sMatcher = new UsbTetherMatcher(new UsbTetherMatcher.RegexSource() {
+                @Override
+                public String[] getTetherableUsbRegexs() {
+                    return connectivityManager.getTetherableUsbRegexs();
+                }
+            });
         }
+        return sMatcher;
+    }
+
+    private void updateState() {
+        final String iface = mUsbConnected ? getMatcher(this).findUsbIface(mActiveIfaces) : null;
+        final boolean tethered = iface != null;
+        if (mTarget != TARGET_NONE && tethered == (mTarget == 1)) {
+            mHandler.removeCallbacks(mTargetTimeoutRunnable);
+            mTarget = TARGET_NONE;
+        }
+        mTetherIface = iface;
+        mUsbTethered = tethered;
+        postRefresh();
+    }
+
+    private void postRefresh() {
+        mHandler.removeCallbacks(mRefreshRunnable);
+        mHandler.post(mRefreshRunnable);
+    }
 
-        if (mUsbTethered) {
-            getQsTile().setIcon(Icon.createWithResource(this, R.drawable.ic_usb_tether_on));
-            getQsTile().setState(Tile.STATE_ACTIVE);
+    private void refresh() {
+        final long start = sStats.begin(TileStats.EVENT_REFRESH);
+        final int target = mTarget;
+        final boolean tethered = target == TARGET_NONE ? mUsbTethered : target == 1;
+        final String iface = mTetherIface;
+        if (tethered && iface != null) {
+            // Sample only while a tether interface is up
+            mThroughputTracker.start(iface, mThroughputCallback);
+        } else {
+            mThroughputTracker.stop();
+        }
+        if (target != TARGET_NONE) {
+            // Requested but not observed yet
+            mRenderer.render(tethered ? Tile.STATE_ACTIVE : Tile.STATE_INACTIVE,
+                    getString(tethered ? R.string.usb_tether_turning_on
+                            : R.string.usb_tether_turning_off),
+                    tethered ? R.drawable.ic_usb_tether_on : R.drawable.ic_usb_tether_off);
+        } else if (tethered) {
+            mRenderer.render(Tile.STATE_ACTIVE, getThroughputLabel(),
+                    R.drawable.ic_usb_tether_on);
         } else {
-            getQsTile().setIcon(Icon.createWithResource(this, R.drawable.ic_usb_tether_off));
-            getQsTile().setState(Tile.STATE_INACTIVE);
+            mRenderer.render(Tile.STATE_INACTIVE, getString(R.string.usb_tether_label),
+                    R.drawable.ic_usb_tether_off);
+        }
+        sStats.end(TileStats.EVENT_REFRESH, start);
+    }
+
+    private String getThroughputLabel() {
+        final long rx = mThroughputTracker.getRxRate();
+        final long tx = mThroughputTracker.getTxRate();
+        if (rx < 0 || tx < 0) {
+            return getString(R.string.usb_tether_label);
         }
-        getQsTile().updateTile();
+        return getString(R.string.usb_tether_throughput, Formatter.formatShortFileSize(this, rx),
+                Formatter.formatShortFileSize(this, tx));
     }
 
     private boolean isAdbEnabled() {
-        return Settings.Global.getInt(getContentResolver(),
-                Settings.Global.ADB_ENABLED, 0) > 0;
+        return SettingsCache.get(this).getInt(SettingsCache.ADB_ENABLED, sStats) > 0;
     }
 
     private boolean isAdbNetworkEnabled() {
-        return CMSettings.Secure.getInt(getContentResolver(),
-                CMSettings.Secure.ADB_PORT, 0) > 0;
+        return SettingsCache.get(this).getInt(SettingsCache.ADB_PORT, sStats) > 0;
     }
 
 }
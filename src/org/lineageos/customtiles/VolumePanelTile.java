@@ -15,33 +15,48 @@
  */
 package org.lineageos.customtiles;
 
-import android.content.Context;
-import android.graphics.drawable.Icon;
 import android.media.AudioManager;
 import android.service.quicksettings.Tile;
 import android.service.quicksettings.TileService;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class VolumePanelTile extends TileService {
 
+    private static final TileStats sStats = new TileStats("VolumePanelTile");
+
+    private final TileRenderer mRenderer = new TileRenderer(this, sStats);
+
     @Override
     public void onStartListening() {
         super.onStartListening();
 
+        final long start = sStats.begin(TileStats.EVENT_START_LISTENING);
         refresh();
+        sStats.end(TileStats.EVENT_START_LISTENING, start);
     }
 
     @Override
     public void onClick() {
         super.onClick();
 
-        AudioManager am = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
-        am.adjustVolume(AudioManager.ADJUST_SAME, AudioManager.FLAG_SHOW_UI);
+        final long start = sStats.begin(TileStats.EVENT_CLICK);
+        sStats.countBinderCall();
+        SystemServices.getAudioManager(this).adjustVolume(AudioManager.ADJUST_SAME,
+                AudioManager.FLAG_SHOW_UI);
+        sStats.end(TileStats.EVENT_CLICK, start);
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        mRenderer.dump(pw);
     }
 
     private void refresh() {
-        getQsTile().setIcon(Icon.createWithResource(this, R.drawable.ic_volume_panel));
-        getQsTile().setState(Tile.STATE_ACTIVE);
-        getQsTile().updateTile();
+        final long start = sStats.begin(TileStats.EVENT_REFRESH);
+        mRenderer.render(Tile.STATE_ACTIVE, null, R.drawable.ic_volume_panel);
+        sStats.end(TileStats.EVENT_REFRESH, start);
     }
 
 }
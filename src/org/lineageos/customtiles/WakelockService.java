@@ -16,71 +16,121 @@
 package org.lineageos.customtiles;
 
 import android.app.Service;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
+import android.os.Handler;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.os.SystemClock;
 
+import org.lineageos.customtiles.core.CaffeineSession;
+
+/**
+ * Holds the caffeine wakelock. It is only started to change the session and
+ * stops itself as soon as the wakelock is released.
+ */
 public class WakelockService extends Service {
+    public static final String ACTION_CYCLE = "org.lineageos.customtiles.action.CAFFEINE_CYCLE";
+
+    private final Handler mHandler = new Handler();
+
     private PowerManager.WakeLock mWakeLock;
+    private CaffeineSession mSession;
+
+    private final EventHub.BroadcastSubscriber mScreenOffSubscriber =
+            new EventHub.BroadcastSubscriber() {
+        @Override
+        public void onReceive(Intent intent) {
+            mHandler.post(mReleaseRunnable);
+        }
+    };
+
+    private final Runnable mReleaseRunnable = new Runnable() {
+        @Override
+        public void run() {
+            release();
+        }
+    };
 
-    private BroadcastReceiver mScreenStateReceiver = new BroadcastReceiver() {
+    private final Runnable mExpireRunnable = new Runnable() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (intent.getAction().equals(Intent.ACTION_SCREEN_OFF)) {
-                if (mWakeLock.isHeld()) {
-                    mWakeLock.release();
-                }
-                stopSelf();
-            }
+        public void run() {
+            release();
         }
     };
 
     @Override
     public void onCreate() {
-        mWakeLock = ((PowerManager) getSystemService(POWER_SERVICE))
+        mWakeLock = SystemServices.getPowerManager(this)
                 .newWakeLock(PowerManager.SCREEN_BRIGHT_WAKE_LOCK, "CaffeineTile");
+        mWakeLock.setReferenceCounted(false);
+
+        final int[] durations = getResources().getIntArray(R.array.config_caffeineDurations);
+        final long[] durationsMs = new long[durations.length];
+        for (int i = 0; i < durations.length; i++) {
+            durationsMs[i] = durations[i] * 1000L;
+        }
+        mSession = new CaffeineSession(durationsMs);
 
-        IntentFilter screenStateFilter = new IntentFilter(Intent.ACTION_SCREEN_OFF);
-        registerReceiver(mScreenStateReceiver, screenStateFilter);
+        EventHub.get(this).subscribe(Intent.ACTION_SCREEN_OFF, mScreenOffSubscriber);
     }
 
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
-        return START_STICKY;
+        if (intent != null && ACTION_CYCLE.equals(intent.getAction())) {
+            cycle();
+        }
+        if (!mWakeLock.isHeld()) {
+            stopSelf();
+        }
+        // The wakelock dies with the process, so there is nothing to restore
+        return START_NOT_STICKY;
     }
 
     @Override
     public IBinder onBind(Intent intent) {
-        return new Binder();
+        return null;
     }
 
     @Override
     public void onDestroy() {
+        mHandler.removeCallbacks(mExpireRunnable);
         if (mWakeLock.isHeld()) {
             mWakeLock.release();
         }
+        CaffeineState.get().set(false, 0);
 
-        unregisterReceiver(mScreenStateReceiver);
+        mHandler.removeCallbacks(mReleaseRunnable);
+        EventHub.get(this).unsubscribe(Intent.ACTION_SCREEN_OFF, mScreenOffSubscriber);
     }
 
-    public boolean isActive() {
-        return mWakeLock.isHeld();
-    }
+    /**
+     * Advances to the next configured duration, turning off after the last one.
+     */
+    private void cycle() {
+        mHandler.removeCallbacks(mExpireRunnable);
+        final long duration = mSession.cycle(SystemClock.elapsedRealtime());
+        if (!mSession.isActive()) {
+            release();
+            return;
+        }
 
-    public void toggle() {
-        if (mWakeLock.isHeld()) {
-            mWakeLock.release();
+        if (duration != CaffeineSession.DURATION_INFINITE) {
+            // The timeout releases the wakelock even if the expiry is delayed
+            mWakeLock.acquire(duration);
+            mHandler.postDelayed(mExpireRunnable, duration);
         } else {
             mWakeLock.acquire();
         }
+        CaffeineState.get().set(true, mSession.getEndTime());
     }
 
-    public class Binder extends android.os.Binder {
-        public WakelockService getService() {
-            return WakelockService.this;
+    private void release() {
+        mHandler.removeCallbacks(mExpireRunnable);
+        if (mWakeLock.isHeld()) {
+            mWakeLock.release();
         }
+        mSession.stop();
+        CaffeineState.get().set(false, 0);
+        stopSelf();
     }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+import java.net.InetAddress;
+import java.util.List;
+
+/**
+ * State of ADB over network derived from the adb settings and the device addresses.
+ */
+public final class AdbNetworkState {
+
+    private AdbNetworkState() {
+    }
+
+    public static boolean isActive(int adbEnabled, int adbPort) {
+        return adbEnabled > 0 && adbPort > 0;
+    }
+
+    /**
+     * Returns the label for an active tile: the preferred address if there is
+     * one, otherwise {@code fallback}.
+     */
+    public static String getLabel(List<InetAddress> addresses, String fallback) {
+        if (addresses.isEmpty()) {
+            return fallback;
+        }
+        return addresses.get(0).getHostAddress();
+    }
+}
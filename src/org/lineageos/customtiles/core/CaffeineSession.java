@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+/**
+ * Caffeine duration state machine. Each {@link #cycle} advances to the next
+ * configured duration and turns off after the last one. Times are supplied by
+ * the caller so the class does not depend on a clock.
+ */
+public class CaffeineSession {
+
+    public static final long DURATION_INFINITE = -1;
+
+    private static final long MINUTE_MS = 60 * 1000;
+
+    private final long[] mDurations;
+
+    private int mIndex = -1;
+    private long mEndTime;
+
+    /**
+     * @param durations durations in milliseconds, a non-positive value is infinite
+     */
+    public CaffeineSession(long[] durations) {
+        mDurations = durations;
+    }
+
+    public boolean isActive() {
+        return mIndex >= 0;
+    }
+
+    /**
+     * Advances to the next duration.
+     *
+     * @return the new duration in milliseconds, {@link #DURATION_INFINITE}, or 0
+     *         if the session is now off
+     */
+    public long cycle(long now) {
+        mIndex++;
+        if (mIndex >= mDurations.length) {
+            stop();
+            return 0;
+        }
+        final long duration = mDurations[mIndex];
+        if (duration > 0) {
+            mEndTime = now + duration;
+            return duration;
+        }
+        mEndTime = 0;
+        return DURATION_INFINITE;
+    }
+
+    public void stop() {
+        mIndex = -1;
+        mEndTime = 0;
+    }
+
+    /**
+     * Returns the end time, or 0 if the session is off or infinite.
+     */
+    public long getEndTime() {
+        return mEndTime;
+    }
+
+    public long getRemainingTime(long now) {
+        if (mEndTime == 0) {
+            return DURATION_INFINITE;
+        }
+        return Math.max(0, mEndTime - now);
+    }
+
+    /**
+     * Returns the remaining time in whole minutes, rounded up.
+     */
+    public static long getRemainingMinutes(long remaining) {
+        return (remaining + MINUTE_MS - 1) / MINUTE_MS;
+    }
+
+    /**
+     * Returns the delay until {@link #getRemainingMinutes} changes.
+     */
+    public static long getDelayToNextMinute(long remaining) {
+        return Math.max(remaining - (getRemainingMinutes(remaining) - 1) * MINUTE_MS, 1);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+/**
+ * Low-pass filters compass headings. The heading is smoothed as a unit vector so
+ * that it does not swing through south when crossing north. Nothing is allocated
+ * per sample.
+ */
+public class HeadingFilter {
+
+    public static final int HEADING_UNKNOWN = -1;
+
+    private final float mAlpha;
+
+    private boolean mHasValue;
+    private float mCos;
+    private float mSin;
+
+    /**
+     * @param alpha weight of a new sample, between 0 (ignore) and 1 (no filtering)
+     */
+    public HeadingFilter(float alpha) {
+        mAlpha = alpha;
+    }
+
+    /**
+     * Smooths {@code values} into {@code filtered} in place. Used for the raw
+     * accelerometer and magnetometer vectors when no rotation vector is available.
+     */
+    public static void lowPass(float[] values, float[] filtered, float alpha) {
+        for (int i = 0; i < filtered.length; i++) {
+            filtered[i] += alpha * (values[i] - filtered[i]);
+        }
+    }
+
+    /**
+     * Adds an azimuth in radians, as returned by SensorManager.getOrientation().
+     */
+    public void add(float azimuth) {
+        final float cos = (float) Math.cos(azimuth);
+        final float sin = (float) Math.sin(azimuth);
+        if (!mHasValue) {
+            mCos = cos;
+            mSin = sin;
+            mHasValue = true;
+        } else {
+            mCos += mAlpha * (cos - mCos);
+            mSin += mAlpha * (sin - mSin);
+        }
+    }
+
+    public void reset() {
+        mHasValue = false;
+    }
+
+    /**
+     * Returns the filtered heading in whole degrees from 0 to 359, or
+     * {@link #HEADING_UNKNOWN} before the first sample.
+     */
+    public int getHeading() {
+        if (!mHasValue) {
+            return HEADING_UNKNOWN;
+        }
+        final int degrees = Math.round((float) Math.toDegrees(Math.atan2(mSin, mCos)));
+        return (degrees + 360) % 360;
+    }
+
+    /**
+     * Returns the angle between two headings in degrees, from 0 to 180.
+     */
+    public static int getDistance(int from, int to) {
+        final int distance = Math.abs(to - from) % 360;
+        return distance > 180 ? 360 - distance : distance;
+    }
+
+    /**
+     * Returns which of {@code count} equal sectors the heading falls in, sector 0
+     * being centered on north.
+     */
+    public static int getSector(int heading, int count) {
+        final int width = 360 / count;
+        return ((heading + width / 2) % 360) / width;
+    }
+}
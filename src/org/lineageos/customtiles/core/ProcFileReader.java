@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Re-reads a proc or sysfs file that is polled while a tile is listening. The
+ * file is opened on the first read and kept open, and each read starts again
+ * from offset 0 with positional reads into the same direct buffer, so a poll
+ * allocates nothing once the buffer has grown to fit the file.
+ */
+public class ProcFileReader implements Closeable {
+
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private final String mPath;
+
+    private FileChannel mChannel;
+    private ByteBuffer mBuffer;
+
+    public ProcFileReader(String path, int capacity) {
+        mPath = path;
+        mBuffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    public ProcFileReader(String path) {
+        this(path, INITIAL_CAPACITY);
+    }
+
+    /**
+     * Reads the whole file. The returned buffer holds the contents between 0 and
+     * its limit, and is only valid until the next call.
+     */
+    public ByteBuffer read() throws IOException {
+        if (mChannel == null) {
+            mChannel = new RandomAccessFile(mPath, "r").getChannel();
+        }
+        mBuffer.clear();
+        long position = 0;
+        int count;
+        while ((count = mChannel.read(mBuffer, position)) >= 0) {
+            position += count;
+            if (!mBuffer.hasRemaining()) {
+                grow();
+            }
+        }
+        mBuffer.flip();
+        return mBuffer;
+    }
+
+    /**
+     * Reads a file holding a single decimal number, like a sysfs counter.
+     * Returns -1 if it does not start with a digit.
+     */
+    public long readLong() throws IOException {
+        final ByteBuffer buffer = read();
+        final int limit = buffer.limit();
+        long value = -1;
+        for (int i = 0; i < limit; i++) {
+            final byte c = buffer.get(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            value = (value < 0 ? 0 : value * 10) + c - '0';
+        }
+        return value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mChannel != null) {
+            mChannel.close();
+            mChannel = null;
+        }
+    }
+
+    private void grow() {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(mBuffer.capacity() * 2);
+        mBuffer.flip();
+        buffer.put(mBuffer);
+        mBuffer = buffer;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+/**
+ * Maps an integer setting to an on/off tile state. Any value other than the
+ * off value counts as on.
+ */
+public class SettingToggle {
+
+    private final int mOnValue;
+    private final int mOffValue;
+
+    public SettingToggle(int onValue, int offValue) {
+        mOnValue = onValue;
+        mOffValue = offValue;
+    }
+
+    public boolean isOn(int value) {
+        return value != mOffValue;
+    }
+
+    public int getValue(boolean on) {
+        return on ? mOnValue : mOffValue;
+    }
+
+    /**
+     * Returns the value to write when the tile is clicked while showing {@code on}.
+     */
+    public int getToggledValue(boolean on) {
+        return getValue(!on);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses the socket tables in /proc/net/tcp and /proc/net/tcp6 straight from the
+ * bytes read by {@link ProcFileReader}, without creating a string per line:
+ *
+ * <pre>
+ *   sl  local_address rem_address   st tx_queue rx_queue ...
+ *    0: 0100007F:15B3 00000000:0000 0A 00000000:00000000 ...
+ * </pre>
+ *
+ * Addresses are hex with the port after the colon, and st is the hex TCP state.
+ */
+public final class TcpSocketTable {
+
+    public static final int STATE_ESTABLISHED = 0x01;
+    public static final int STATE_LISTEN = 0x0A;
+
+    private TcpSocketTable() {
+    }
+
+    /**
+     * Returns the number of sockets in {@code table}, between 0 and its limit,
+     * that have local port {@code port} and are in TCP state {@code state}.
+     */
+    public static int countSockets(ByteBuffer table, int port, int state) {
+        final int limit = table.limit();
+        int count = 0;
+        // The first line is the header
+        int i = skipLine(table, 0, limit);
+        while (i < limit) {
+            // Slot number
+            i = skipToken(table, skipSpaces(table, i, limit), limit);
+            // Local address and port
+            i = skipSpaces(table, i, limit);
+            i = skipHex(table, i, limit);
+            if (i < limit && table.get(i) == ':') {
+                final int end = skipHex(table, i + 1, limit);
+                if (parseHex(table, i + 1, end) == port) {
+                    // Remote address, then the state
+                    i = skipToken(table, skipSpaces(table, end, limit), limit);
+                    i = skipSpaces(table, i, limit);
+                    if (parseHex(table, i, skipHex(table, i, limit)) == state) {
+                        count++;
+                    }
+                }
+            }
+            i = skipLine(table, i, limit);
+        }
+        return count;
+    }
+
+    private static int skipLine(ByteBuffer buffer, int i, int limit) {
+        while (i < limit && buffer.get(i) != '\n') {
+            i++;
+        }
+        return i + 1;
+    }
+
+    private static int skipSpaces(ByteBuffer buffer, int i, int limit) {
+        while (i < limit && buffer.get(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipToken(ByteBuffer buffer, int i, int limit) {
+        byte c;
+        while (i < limit && (c = buffer.get(i)) != ' ' && c != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipHex(ByteBuffer buffer, int i, int limit) {
+        while (i < limit && hexValue(buffer.get(i)) >= 0) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Returns the value of the hex digits between {@code start} and {@code end},
+     * or -1 if there are none.
+     */
+    private static int parseHex(ByteBuffer buffer, int start, int end) {
+        if (start >= end) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = (value << 4) | hexValue(buffer.get(i));
+        }
+        return value;
+    }
+
+    private static int hexValue(byte c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+}
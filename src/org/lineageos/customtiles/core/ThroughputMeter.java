@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+/**
+ * Turns samples of a byte counter into a rate, smoothed with an exponential
+ * moving average. Nothing is allocated per sample.
+ */
+public class ThroughputMeter {
+
+    public static final long RATE_UNKNOWN = -1;
+
+    private final float mAlpha;
+
+    private boolean mHasSample;
+    private long mLastBytes;
+    private long mLastTimeMs;
+
+    private boolean mHasRate;
+    private float mRate;
+
+    /**
+     * @param alpha weight of a new sample, between 0 (ignore) and 1 (no smoothing)
+     */
+    public ThroughputMeter(float alpha) {
+        mAlpha = alpha;
+    }
+
+    public void reset() {
+        mHasSample = false;
+        mHasRate = false;
+    }
+
+    /**
+     * Adds a counter value read at {@code timeMs}. A counter that went backwards,
+     * as when the interface is recreated, only starts a new baseline. Negative
+     * values, from an unreadable counter, are ignored.
+     */
+    public void add(long bytes, long timeMs) {
+        if (bytes < 0) {
+            return;
+        }
+        if (mHasSample && timeMs > mLastTimeMs && bytes >= mLastBytes) {
+            final float rate = (bytes - mLastBytes) * 1000f / (timeMs - mLastTimeMs);
+            if (mHasRate) {
+                mRate += mAlpha * (rate - mRate);
+            } else {
+                mRate = rate;
+                mHasRate = true;
+            }
+        }
+        mLastBytes = bytes;
+        mLastTimeMs = timeMs;
+        mHasSample = true;
+    }
+
+    /**
+     * Returns the smoothed rate in bytes per second, or {@link #RATE_UNKNOWN}
+     * until there have been two samples.
+     */
+    public long getRate() {
+        return mHasRate ? Math.round(mRate) : RATE_UNKNOWN;
+    }
+}
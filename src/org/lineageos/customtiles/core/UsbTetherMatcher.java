@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches interface names against the tetherable USB regexes. The regexes are
+ * fetched and compiled once into a single pattern, and results are cached per
+ * interface until the tether configuration changes.
+ */
+public class UsbTetherMatcher {
+
+    public interface RegexSource {
+        String[] getTetherableUsbRegexs();
+    }
+
+    private final RegexSource mSource;
+    private final HashMap<String, Boolean> mResults = new HashMap<>();
+
+    private Pattern mPattern;
+
+    public UsbTetherMatcher(RegexSource source) {
+        mSource = source;
+    }
+
+    public synchronized void invalidate() {
+        mPattern = null;
+        mResults.clear();
+    }
+
+    /**
+     * Returns the first interface in {@code ifaces} that is a USB tether interface,
+     * or null if there is none.
+     */
+    public synchronized String findUsbIface(List<String> ifaces) {
+        if (ifaces == null) {
+            return null;
+        }
+        for (int i = 0; i < ifaces.size(); i++) {
+            final String iface = ifaces.get(i);
+            if (isUsbIface(iface)) {
+                return iface;
+            }
+        }
+        return null;
+    }
+
+    public synchronized boolean isUsbIface(String iface) {
+        Boolean result = mResults.get(iface);
+        if (result == null) {
+            result = getPattern().matcher(iface).matches();
+            mResults.put(iface, result);
+        }
+        return result;
+    }
+
+    private Pattern getPattern() {
+        if (mPattern == null) {
+            mPattern = compile(mSource.getTetherableUsbRegexs());
+        }
+        return mPattern;
+    }
+
+    static Pattern compile(String[] regexs) {
+        if (regexs == null || regexs.length == 0) {
+            // Matches nothing
+            return Pattern.compile("(?!)");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String regex : regexs) {
+            if (sb.length() > 0) {
+                sb.append('|');
+            }
+            sb.append("(?:").append(regex).append(')');
+        }
+        return Pattern.compile(sb.toString());
+    }
+}
@@ -0,0 +1,20 @@
+LOCAL_PATH := $(call my-dir)
+
+# Host tests of the framework-independent core, run with
+#   java -cp $ANDROID_HOST_OUT/framework/CustomTilesCoreTests.jar \
+#       org.junit.runner.JUnitCore org.lineageos.customtiles.core.AllTests
+include $(CLEAR_VARS)
+
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src)
+
+LOCAL_STATIC_JAVA_LIBRARIES := \
+    CustomTilesCore \
+    junit
+
+LOCAL_MODULE := CustomTilesCoreTests
+LOCAL_MODULE_TAGS := tests
+
+include $(BUILD_HOST_JAVA_LIBRARY)
+
+include $(call all-makefiles-under, $(LOCAL_PATH))
@@ -0,0 +1,19 @@
+LOCAL_PATH := $(call my-dir)
+
+# Host benchmarks of the framework-independent core, run with
+#   java -jar $ANDROID_HOST_OUT/framework/CustomTilesCoreBenchmarks.jar [--check]
+# --check fails when a refresh path that should not allocate does.
+include $(CLEAR_VARS)
+
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src)
+
+LOCAL_STATIC_JAVA_LIBRARIES := \
+    CustomTilesCore
+
+LOCAL_JAR_MANIFEST := manifest.txt
+
+LOCAL_MODULE := CustomTilesCoreBenchmarks
+LOCAL_MODULE_TAGS := tests
+
+include $(BUILD_HOST_JAVA_LIBRARY)
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Times a benchmark and measures what it allocates, on a plain JVM. Each
+ * benchmark runs a fixed number of operations per call, so a call is one burst
+ * of events; the results are reported per operation.
+ */
+abstract class Benchmark {
+
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+
+    final String mName;
+    final int mOperations;
+    /** Whether the benchmarked path must not allocate once warmed up. */
+    final boolean mAllocationFree;
+
+    private long mNanosPerOp;
+    private long mBytesPerOp = -1;
+
+    Benchmark(String name, int operations, boolean allocationFree) {
+        mName = name;
+        mOperations = operations;
+        mAllocationFree = allocationFree;
+    }
+
+    /**
+     * Runs {@link #mOperations} operations. Returns a value derived from the
+     * results, so the JIT cannot drop the work.
+     */
+    abstract long run();
+
+    long getNanosPerOp() {
+        return mNanosPerOp;
+    }
+
+    /**
+     * Returns the bytes allocated per operation, or -1 if the JVM cannot tell.
+     */
+    long getBytesPerOp() {
+        return mBytesPerOp;
+    }
+
+    long measure() {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += run();
+        }
+
+        final long threadId = Thread.currentThread().getId();
+        final com.sun.management.ThreadMXBean threads = getThreadMXBean();
+        final long bytesBefore = threads != null ? threads.getThreadAllocatedBytes(threadId) : 0;
+        final long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            sink += run();
+        }
+        final long nanos = System.nanoTime() - start;
+        final long bytesAfter = threads != null ? threads.getThreadAllocatedBytes(threadId) : 0;
+
+        final long operations = (long) ROUNDS * mOperations;
+        mNanosPerOp = nanos / operations;
+        if (threads != null) {
+            mBytesPerOp = (bytesAfter - bytesBefore) / operations;
+        }
+        return sink;
+    }
+
+    private static com.sun.management.ThreadMXBean getThreadMXBean() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        final com.sun.management.ThreadMXBean sunThreads =
+                (com.sun.management.ThreadMXBean) threads;
+        if (!sunThreads.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        sunThreads.setThreadAllocatedMemoryEnabled(true);
+        return sunThreads;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Refresh throughput and allocation per refresh of the tile state core under
+ * bursts of events. Prints one line per benchmark; with --check, exits with an
+ * error when a path that should not allocate does.
+ */
+public class CoreBenchmarks {
+
+    private static final int BURST = 1000;
+
+    private static final String[] USB_REGEXS = { "usb\\d", "rndis\\d" };
+    private static final List<String> TETHERED_IFACES = Arrays.asList("wlan0", "p2p0", "rndis0");
+
+    private static final int ADB_PORT = 5555;
+    private static final int TCP_SOCKETS = 32;
+
+    public static void main(String[] args) {
+        final boolean check = args.length > 0 && "--check".equals(args[0]);
+        final List<Benchmark> benchmarks = getBenchmarks();
+
+        long sink = 0;
+        boolean failed = false;
+        for (Benchmark benchmark : benchmarks) {
+            sink += benchmark.measure();
+            final long bytes = benchmark.getBytesPerOp();
+            System.out.println(String.format("%-36s %8d ns/op %8s B/op", benchmark.mName,
+                    benchmark.getNanosPerOp(), bytes >= 0 ? Long.toString(bytes) : "?"));
+            if (benchmark.mAllocationFree && bytes > 0) {
+                System.out.println("  allocates, but should not");
+                failed = true;
+            }
+        }
+        // Keeps the results alive
+        if (sink == Long.MIN_VALUE) {
+            System.out.println(sink);
+        }
+        if (check && failed) {
+            System.exit(1);
+        }
+    }
+
+    private static List<Benchmark> getBenchmarks() {
+        final ArrayList<Benchmark> benchmarks = new ArrayList<>();
+
+        // A burst of changes to a toggle tile's setting, each rendered
+        final SettingToggle toggle = new SettingToggle(1, 0);
+        benchmarks.add(new Benchmark("SettingToggle.settingBurst", BURST, true) {
+            @Override
+            long run() {
+                long sink = 0;
+                for (int i = 0; i < BURST; i++) {
+                    sink += toggle.getToggledValue(toggle.isOn(i & 1));
+                }
+                return sink;
+            }
+        });
+
+        // A burst of tether state broadcasts for the same interfaces
+        final UsbTetherMatcher matcher = new UsbTetherMatcher(
+                new UsbTetherMatcher.RegexSource() {
+            @Override
+            public String[] getTetherableUsbRegexs() {
+                return USB_REGEXS;
+            }
+        });
+        benchmarks.add(new Benchmark("UsbTetherMatcher.tetherStateBurst", BURST, true) {
+            @Override
+            long run() {
+                long sink = 0;
+                for (int i = 0; i < BURST; i++) {
+                    sink += matcher.findUsbIface(TETHERED_IFACES).length();
+                }
+                return sink;
+            }
+        });
+
+        // The first tether state broadcast after each configuration change
+        benchmarks.add(new Benchmark("UsbTetherMatcher.configurationChange", BURST / 10, false) {
+            @Override
+            long run() {
+                long sink = 0;
+                for (int i = 0; i < BURST / 10; i++) {
+                    matcher.invalidate();
+                    sink += matcher.findUsbIface(TETHERED_IFACES).length();
+                }
+                return sink;
+            }
+        });
+
+        // Polls of the adb client count
+        final ByteBuffer table = getTcpTable();
+        benchmarks.add(new Benchmark("TcpSocketTable.adbClientPoll", BURST / 10, true) {
+            @Override
+            long run() {
+                long sink = 0;
+                for (int i = 0; i < BURST / 10; i++) {
+                    sink += TcpSocketTable.countSockets(table, ADB_PORT,
+                            TcpSocketTable.STATE_ESTABLISHED);
+                }
+                return sink;
+            }
+        });
+
+        // Throughput samples of a tether interface
+        final ThroughputMeter meter = new ThroughputMeter(0.5f);
+        benchmarks.add(new Benchmark("ThroughputMeter.sample", BURST, true) {
+            private long mTime;
+
+            @Override
+            long run() {
+                long sink = 0;
+                for (int i = 0; i < BURST; i++) {
+                    mTime += 1000;
+                    meter.add(mTime * 1024, mTime);
+                    sink += meter.getRate();
+                }
+                return sink;
+            }
+        });
+
+        return benchmarks;
+    }
+
+    /**
+     * Returns a /proc/net/tcp table with a listening adb socket and a few clients
+     * among other connections, as read by ProcFileReader.
+     */
+    private static ByteBuffer getTcpTable() {
+        final StringBuilder sb = new StringBuilder("  sl  local_address rem_address   st"
+                + " tx_queue rx_queue tr tm->when retrnsmt   uid  timeout inode\n");
+        for (int i = 0; i < TCP_SOCKETS; i++) {
+            final int port = i % 4 == 0 ? ADB_PORT : 40000 + i;
+            final int state = i == 0 ? TcpSocketTable.STATE_LISTEN
+                    : TcpSocketTable.STATE_ESTABLISHED;
+            sb.append(String.format("%4d: 0B01A8C0:%04X 0C01A8C0:%04X %02X"
+                    + " 00000000:00000000 00:00000000 00000000     0        0 %d 1"
+                    + " 0000000000000000 20 4 30 10 -1\n", i, port, 50000 + i, state, 1000 + i));
+        }
+        final byte[] bytes = sb.toString().getBytes(StandardCharsets.US_ASCII);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,30 @@
+LOCAL_PATH := $(call my-dir)
+
+# Robolectric tests that drive every tile against a fake quick settings host and
+# check its budgets, run with
+#   make RunCustomTilesRoboTests
+include $(CLEAR_VARS)
+
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src)
+
+LOCAL_JAVA_LIBRARIES := \
+    junit4-target \
+    platform-robolectric-prebuilt
+
+LOCAL_INSTRUMENTATION_FOR := CustomTiles
+LOCAL_MODULE := CustomTilesRoboTests
+LOCAL_MODULE_TAGS := optional
+
+include $(BUILD_STATIC_JAVA_LIBRARY)
+
+include $(CLEAR_VARS)
+
+LOCAL_MODULE := RunCustomTilesRoboTests
+
+LOCAL_STATIC_JAVA_LIBRARIES := \
+    CustomTilesRoboTests
+
+LOCAL_TEST_PACKAGE := CustomTiles
+
+include prebuilts/misc/common/robolectric/run_robotests.mk
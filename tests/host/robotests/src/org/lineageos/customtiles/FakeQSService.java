@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import android.graphics.drawable.Icon;
+import android.os.IBinder;
+import android.service.quicksettings.IQSService;
+import android.service.quicksettings.Tile;
+import android.util.ArrayMap;
+
+/**
+ * Stands in for the quick settings host: hands each token its own {@link Tile} and
+ * counts the updates the tile service publishes for it.
+ */
+class FakeQSService extends IQSService.Stub {
+
+    private final ArrayMap<IBinder, Tile> mTiles = new ArrayMap<>();
+    private final ArrayMap<IBinder, Integer> mUpdates = new ArrayMap<>();
+
+    @Override
+    public synchronized Tile getTile(IBinder token) {
+        Tile tile = mTiles.get(token);
+        if (tile == null) {
+            tile = new Tile();
+            mTiles.put(token, tile);
+        }
+        return tile;
+    }
+
+    @Override
+    public synchronized void updateQsTile(Tile tile, IBinder token) {
+        mUpdates.put(token, getUpdateCount(token) + 1);
+    }
+
+    synchronized int getUpdateCount(IBinder token) {
+        final Integer count = mUpdates.get(token);
+        return count != null ? count : 0;
+    }
+
+    @Override
+    public void updateStatusIcon(IBinder token, Icon icon, String contentDescription) {
+    }
+
+    @Override
+    public void onShowDialog(IBinder token) {
+    }
+
+    @Override
+    public void onStartActivity(IBinder token) {
+    }
+
+    @Override
+    public boolean isLocked() {
+        return false;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return false;
+    }
+
+    @Override
+    public void startUnlockAndRun(IBinder token) {
+    }
+
+    @Override
+    public void onDialogHidden(IBinder token) {
+    }
+
+    @Override
+    public void onStartSuccessful(IBinder token) {
+    }
+}
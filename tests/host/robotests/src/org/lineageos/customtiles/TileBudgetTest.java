@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.hardware.usb.UsbManager;
+import android.net.ConnectivityManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.provider.Settings;
+import android.service.quicksettings.TileService;
+
+import com.android.internal.os.BackgroundThread;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowApplication;
+import org.robolectric.shadows.ShadowLooper;
+import org.robolectric.util.ServiceController;
+
+/**
+ * Drives the tiles through listening sessions, clicks and event bursts against a
+ * fake quick settings host, and fails when a tile goes over its budget of tile
+ * updates, settings provider queries, system service calls or registered
+ * listeners.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = TileBudgetTest.MANIFEST_PATH, sdk = Build.VERSION_CODES.N_MR1,
+        shadows = ShadowUserContentResolver.class)
+public class TileBudgetTest {
+
+    static final String MANIFEST_PATH = "packages/apps/CustomTiles/AndroidManifest.xml";
+
+    // Budgets
+    private static final int MAX_UPDATES_PER_CHANGE = 1;
+    private static final int MAX_PROVIDER_READS_PER_CLICK = 1;
+    private static final int MAX_BINDER_CALLS_PER_CLICK = 1;
+
+    // Enough for an event to be handled in the background, rendered and published
+    private static final int SETTLE_ROUNDS = 3;
+
+    // Odd, so a burst of toggles ends on the toggled value
+    private static final int BURST_EVENTS = 9;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private FakeQSService mHost;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mResolver = mContext.getContentResolver();
+        mHost = new FakeQSService();
+    }
+
+    @Test
+    public void everyTileReleasesItsListeners() {
+        for (TileRegistry.Entry entry : TileRegistry.TILES) {
+            final BoundTile tile = bind(entry.mTileClass);
+            // A first session may set up process-wide state that stays
+            tile.listen();
+            final int listeners = getListenerCount();
+            final int receivers = getReceiverCount();
+
+            tile.listen();
+            final String name = entry.mTileClass.getSimpleName();
+            assertEquals(name, listeners, getListenerCount());
+            assertEquals(name, receivers, getReceiverCount());
+            tile.destroy();
+        }
+    }
+
+    @Test
+    public void everyIdleSessionPublishesNothing() {
+        for (TileRegistry.Entry entry : TileRegistry.TILES) {
+            final BoundTile tile = bind(entry.mTileClass);
+            tile.listen();
+            final int updates = tile.getUpdateCount();
+
+            tile.listen();
+            assertEquals(entry.mTileClass.getSimpleName(), updates, tile.getUpdateCount());
+            tile.destroy();
+        }
+    }
+
+    @Test
+    public void everyWarmSessionSkipsTheProvider() {
+        for (TileRegistry.Entry entry : TileRegistry.TILES) {
+            final BoundTile tile = bind(entry.mTileClass);
+            tile.listen();
+            final TileStats stats = tile.getStats();
+            final int providerReads = stats.getProviderReads();
+            final int binderCalls = stats.getBinderCalls();
+
+            tile.listen();
+            final String name = entry.mTileClass.getSimpleName();
+            assertEquals(name, providerReads, stats.getProviderReads());
+            assertEquals(name, binderCalls, stats.getBinderCalls());
+            tile.destroy();
+        }
+    }
+
+    @Test
+    public void toggleClickStaysWithinBudget() {
+        final BoundTile tile = bind(HeadsUpTile.class);
+        tile.startListening();
+        final TileStats stats = tile.getStats();
+        final int updates = tile.getUpdateCount();
+        final int providerReads = stats.getProviderReads();
+        final int binderCalls = stats.getBinderCalls();
+
+        tile.click();
+        assertEquals(updates + 1, tile.getUpdateCount());
+        assertTrue(stats.getProviderReads() - providerReads <= MAX_PROVIDER_READS_PER_CLICK);
+        assertTrue(stats.getBinderCalls() - binderCalls <= MAX_BINDER_CALLS_PER_CLICK);
+        tile.destroy();
+    }
+
+    @Test
+    public void settingBurstPublishesOnce() {
+        final SettingsToggleSpec spec = SettingsToggleSpec.get(mContext,
+                new ComponentName(mContext, HeadsUpTile.class));
+        assertNotNull(spec);
+        final SettingsCache.Key key = spec.mKey;
+        final boolean on = spec.mToggle.isOn(Settings.Global.getInt(mResolver, key.mName,
+                key.mDefault));
+
+        final BoundTile tile = bind(HeadsUpTile.class);
+        tile.startListening();
+        final int updates = tile.getUpdateCount();
+
+        for (int i = 0; i < BURST_EVENTS; i++) {
+            Settings.Global.putInt(mResolver, key.mName,
+                    spec.mToggle.getValue(i % 2 == 0 ? !on : on));
+            mResolver.notifyChange(key.mUri, null);
+        }
+        settle();
+        assertEquals(updates + MAX_UPDATES_PER_CHANGE, tile.getUpdateCount());
+        tile.destroy();
+    }
+
+    @Test
+    public void unchangedUsbStatePublishesNothing() {
+        final Intent intent = new Intent(UsbManager.ACTION_USB_STATE)
+                .putExtra(UsbManager.USB_CONNECTED, false);
+        mContext.sendStickyBroadcast(intent);
+
+        final BoundTile tile = bind(UsbTetherTile.class);
+        tile.startListening();
+        final int updates = tile.getUpdateCount();
+
+        for (int i = 0; i < BURST_EVENTS; i++) {
+            mContext.sendStickyBroadcast(intent);
+        }
+        settle();
+        assertEquals(updates, tile.getUpdateCount());
+        tile.destroy();
+    }
+
+    @Test
+    public void screenOffEndsCaffeineWithOneUpdate() {
+        final BoundTile tile = bind(CaffeineTile.class);
+        tile.startListening();
+
+        final ServiceController<WakelockService> service = Robolectric.buildService(
+                WakelockService.class, new Intent(WakelockService.ACTION_CYCLE)).create();
+        service.startCommand(0, 1);
+        settle();
+        assertTrue(CaffeineState.get().isActive());
+        final int updates = tile.getUpdateCount();
+
+        for (int i = 0; i < BURST_EVENTS; i++) {
+            mContext.sendBroadcast(new Intent(Intent.ACTION_SCREEN_OFF));
+        }
+        settle();
+        assertFalse(CaffeineState.get().isActive());
+        assertEquals(updates + MAX_UPDATES_PER_CHANGE, tile.getUpdateCount());
+
+        service.destroy();
+        tile.destroy();
+    }
+
+    private BoundTile bind(Class<? extends TileService> cls) {
+        return new BoundTile(cls);
+    }
+
+    private int getListenerCount() {
+        return EventHub.get(mContext).getListenerCount()
+                + SettingsCache.get(mContext).getListenerCount()
+                + CaffeineState.get().getListenerCount()
+                + SyncStateTracker.get().getListenerCount()
+                + PerformanceProfileTracker.get(mContext).getListenerCount()
+                + NetworkAddressTracker.get(mContext.getSystemService(
+                        ConnectivityManager.class)).getListenerCount()
+                + AdbClientTracker.get().getListenerCount()
+                + InterfaceThroughputTracker.get().getListenerCount();
+    }
+
+    private static int getReceiverCount() {
+        return ShadowApplication.getInstance().getRegisteredReceivers().size();
+    }
+
+    /**
+     * Runs what the events posted so far lead to, on the background and main
+     * threads, including the frame that publishes the tile updates.
+     */
+    private static void settle() {
+        final ShadowLooper background =
+                Shadows.shadowOf(BackgroundThread.getHandler().getLooper());
+        for (int i = 0; i < SETTLE_ROUNDS; i++) {
+            background.getScheduler().advanceToLastPostedRunnable();
+            ShadowLooper.runUiThreadTasksIncludingDelayedTasks();
+        }
+    }
+
+    /**
+     * A tile service bound the way the quick settings host binds it, with its own
+     * token on the fake host.
+     */
+    private final class BoundTile {
+        private final Class<? extends TileService> mClass;
+        private final IBinder mToken = new Binder();
+        private final ServiceController<? extends TileService> mController;
+
+        BoundTile(Class<? extends TileService> cls) {
+            mClass = cls;
+            final Bundle extras = new Bundle();
+            extras.putBinder(TileService.EXTRA_SERVICE, mHost.asBinder());
+            extras.putBinder(TileService.EXTRA_TOKEN, mToken);
+            mController = Robolectric.buildService(cls,
+                    new Intent(mContext, cls).putExtras(extras)).create().bind();
+            settle();
+        }
+
+        void startListening() {
+            mController.get().onStartListening();
+            settle();
+        }
+
+        void stopListening() {
+            mController.get().onStopListening();
+            settle();
+        }
+
+        void listen() {
+            startListening();
+            stopListening();
+        }
+
+        void click() {
+            mController.get().onClick();
+            settle();
+        }
+
+        void destroy() {
+            mController.unbind().destroy();
+        }
+
+        int getUpdateCount() {
+            return mHost.getUpdateCount(mToken);
+        }
+
+        TileStats getStats() {
+            final TileStats stats = TileStats.get(mClass.getSimpleName());
+            assertNotNull(mClass.getSimpleName(), stats);
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+
+public class AdbNetworkStateTest {
+
+    @Test
+    public void activeNeedsAdbAndPort() {
+        assertTrue(AdbNetworkState.isActive(1, 5555));
+        assertFalse(AdbNetworkState.isActive(0, 5555));
+        assertFalse(AdbNetworkState.isActive(1, -1));
+    }
+
+    @Test
+    public void labelIsFirstAddress() throws UnknownHostException {
+        assertEquals("192.168.1.11", AdbNetworkState.getLabel(Arrays.asList(
+                InetAddress.getByName("192.168.1.11"), InetAddress.getByName("fd00::1")),
+                "fallback"));
+        assertEquals("fallback", AdbNetworkState.getLabel(
+                Collections.<InetAddress>emptyList(), "fallback"));
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HeadingFilterTest {
+
+    @Test
+    public void unknownUntilFirstSample() {
+        final HeadingFilter filter = new HeadingFilter(0.5f);
+        assertEquals(HeadingFilter.HEADING_UNKNOWN, filter.getHeading());
+        filter.add((float) Math.toRadians(90));
+        assertEquals(90, filter.getHeading());
+    }
+
+    @Test
+    public void smoothsAcrossNorth() {
+        final HeadingFilter filter = new HeadingFilter(0.5f);
+        filter.add((float) Math.toRadians(350));
+        filter.add((float) Math.toRadians(10));
+        assertEquals(0, filter.getHeading());
+    }
+
+    @Test
+    public void distanceWrapsAround() {
+        assertEquals(0, HeadingFilter.getDistance(42, 42));
+        assertEquals(5, HeadingFilter.getDistance(10, 15));
+        assertEquals(5, HeadingFilter.getDistance(15, 10));
+        assertEquals(10, HeadingFilter.getDistance(355, 5));
+        assertEquals(180, HeadingFilter.getDistance(90, 270));
+    }
+
+    @Test
+    public void sectorsCenteredOnNorth() {
+        assertEquals(0, HeadingFilter.getSector(0, 8));
+        assertEquals(0, HeadingFilter.getSector(350, 8));
+        assertEquals(1, HeadingFilter.getSector(45, 8));
+        assertEquals(4, HeadingFilter.getSector(180, 8));
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class ProcFileReaderTest {
+
+    private File mFile;
+    private ProcFileReader mReader;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("proc", null);
+        mReader = new ProcFileReader(mFile.getPath(), 16);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mReader.close();
+        mFile.delete();
+    }
+
+    private void write(String contents) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(mFile)) {
+            out.write(contents.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private static String toString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.limit()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(i);
+        }
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void readsWholeFile() throws IOException {
+        write("hello\n");
+        assertEquals("hello\n", toString(mReader.read()));
+    }
+
+    @Test
+    public void growsPastInitialCapacity() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append(i).append('\n');
+        }
+        write(sb.toString());
+        assertEquals(sb.toString(), toString(mReader.read()));
+    }
+
+    @Test
+    public void rereadsFromStartWhileOpen() throws IOException {
+        write("first contents\n");
+        assertEquals("first contents\n", toString(mReader.read()));
+        write("second\n");
+        assertEquals("second\n", toString(mReader.read()));
+    }
+
+    @Test
+    public void reusesBuffer() throws IOException {
+        write("12345\n");
+        final ByteBuffer first = mReader.read();
+        assertSame(first, mReader.read());
+    }
+
+    @Test
+    public void shrinksLimitOnReread() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append(i).append('\n');
+        }
+        write(sb.toString());
+        mReader.read();
+        write("0\n");
+        final ByteBuffer buffer = mReader.read();
+        assertEquals(2, buffer.limit());
+        assertEquals("0\n", toString(buffer));
+    }
+
+    @Test
+    public void readsLong() throws IOException {
+        write("123456789012\n");
+        assertEquals(123456789012L, mReader.readLong());
+        write("0\n");
+        assertEquals(0, mReader.readLong());
+    }
+
+    @Test
+    public void readLongWithoutDigits() throws IOException {
+        write("\n");
+        assertEquals(-1, mReader.readLong());
+        write("");
+        assertEquals(-1, mReader.readLong());
+    }
+
+    @Test
+    public void rereadsGrowingCounter() throws IOException {
+        // sysfs counters are re-read in place while the file stays open
+        write("999\n");
+        assertEquals(999, mReader.readLong());
+        write("1000000000000000\n");
+        assertEquals(1000000000000000L, mReader.readLong());
+    }
+
+    @Test(expected = IOException.class)
+    public void missingFile() throws IOException {
+        try (ProcFileReader reader = new ProcFileReader(mFile.getPath() + ".missing")) {
+            reader.read();
+        }
+    }
+}
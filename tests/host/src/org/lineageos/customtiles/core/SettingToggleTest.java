@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SettingToggleTest {
+
+    @Test
+    public void anyValueButOffIsOn() {
+        final SettingToggle toggle = new SettingToggle(5555, -1);
+        assertTrue(toggle.isOn(5555));
+        assertTrue(toggle.isOn(0));
+        assertFalse(toggle.isOn(-1));
+    }
+
+    @Test
+    public void togglesBetweenValues() {
+        final SettingToggle toggle = new SettingToggle(1, 0);
+        assertEquals(0, toggle.getToggledValue(true));
+        assertEquals(1, toggle.getToggledValue(false));
+        assertEquals(1, toggle.getValue(true));
+    }
+}
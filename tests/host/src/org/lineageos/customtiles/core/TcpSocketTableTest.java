@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class TcpSocketTableTest {
+
+    private static final int ADB_PORT = 5555;
+
+    private static final String HEADER = "  sl  local_address rem_address   st tx_queue rx_queue"
+            + " tr tm->when retrnsmt   uid  timeout inode\n";
+
+    // Listening on 5555, two clients on 5555, one outgoing connection to a
+    // remote 5555 and one client on another port
+    private static final String TCP = HEADER
+            + "   0: 00000000:15B3 00000000:0000 0A 00000000:00000000 00:00000000 00000000"
+            + "     0        0 1001 1 0000000000000000 100 0 0 10 0\n"
+            + "   1: 0B01A8C0:15B3 0C01A8C0:D431 01 00000000:00000000 02:0009A8A2 00000000"
+            + "     0        0 1002 1 0000000000000000 20 4 30 10 -1\n"
+            + "   2: 0B01A8C0:15B3 0D01A8C0:C350 01 00000000:00000000 02:0009A8A2 00000000"
+            + "     0        0 1003 1 0000000000000000 20 4 30 10 -1\n"
+            + "   3: 0B01A8C0:A1B2 0E01A8C0:15B3 01 00000000:00000000 00:00000000 00000000"
+            + "  2000        0 1004 1 0000000000000000 20 4 30 10 -1\n"
+            + "   4: 0B01A8C0:0016 0C01A8C0:D432 01 00000000:00000000 00:00000000 00000000"
+            + "     0        0 1005 1 0000000000000000 20 4 30 10 -1\n";
+
+    private static final String TCP6 = HEADER
+            + "   0: 00000000000000000000000000000000:15B3 00000000000000000000000000000000:0000"
+            + " 0A 00000000:00000000 00:00000000 00000000     0        0 2001 1 0 100 0 0 10 0\n"
+            + "   1: 0000000000000000FFFF00000B01A8C0:15B3 0000000000000000FFFF00000C01A8C0:D433"
+            + " 01 00000000:00000000 00:00000000 00000000     0        0 2002 1 0 20 4 30 10 -1\n"
+            + "   2: 0000000000000000FFFF00000B01A8C0:15B3 0000000000000000FFFF00000C01A8C0:D434"
+            + " 06 00000000:00000000 03:00000F9F 00000000     0        0 0 3 0\n";
+
+    private static ByteBuffer table(String contents) {
+        final byte[] bytes = contents.getBytes(StandardCharsets.US_ASCII);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length + 64);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void write(File file, String contents) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(contents.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    public void countsEstablishedOnLocalPort() {
+        assertEquals(2, TcpSocketTable.countSockets(table(TCP), ADB_PORT,
+                TcpSocketTable.STATE_ESTABLISHED));
+        assertEquals(1, TcpSocketTable.countSockets(table(TCP), ADB_PORT,
+                TcpSocketTable.STATE_LISTEN));
+        assertEquals(1, TcpSocketTable.countSockets(table(TCP), 22,
+                TcpSocketTable.STATE_ESTABLISHED));
+    }
+
+    @Test
+    public void countsIpv6Table() {
+        assertEquals(1, TcpSocketTable.countSockets(table(TCP6), ADB_PORT,
+                TcpSocketTable.STATE_ESTABLISHED));
+        assertEquals(1, TcpSocketTable.countSockets(table(TCP6), ADB_PORT,
+                TcpSocketTable.STATE_LISTEN));
+    }
+
+    @Test
+    public void emptyTables() {
+        assertEquals(0, TcpSocketTable.countSockets(table(""), ADB_PORT,
+                TcpSocketTable.STATE_ESTABLISHED));
+        assertEquals(0, TcpSocketTable.countSockets(table(HEADER), ADB_PORT,
+                TcpSocketTable.STATE_ESTABLISHED));
+    }
+
+    @Test
+    public void lastLineWithoutNewline() {
+        final String contents = TCP.substring(0, TCP.length() - 1);
+        assertEquals(2, TcpSocketTable.countSockets(table(contents), ADB_PORT,
+                TcpSocketTable.STATE_ESTABLISHED));
+    }
+
+    @Test
+    public void truncatedLine() {
+        // A table read while the kernel was changing it can end mid-line
+        final String contents = TCP + "   5: 0B01A8C0:15B3 0C01";
+        assertEquals(2, TcpSocketTable.countSockets(table(contents), ADB_PORT,
+                TcpSocketTable.STATE_ESTABLISHED));
+    }
+
+    @Test
+    public void ignoresContentsPastLimit() {
+        // A reused buffer still holds the end of a longer, earlier table
+        final ByteBuffer buffer = table(TCP + TCP.substring(HEADER.length()));
+        buffer.limit(TCP.length());
+        assertEquals(2, TcpSocketTable.countSockets(buffer, ADB_PORT,
+                TcpSocketTable.STATE_ESTABLISHED));
+    }
+
+    @Test
+    public void countsTableReadThroughReusedBuffer() throws IOException {
+        final File file = File.createTempFile("tcp", null);
+        try (ProcFileReader reader = new ProcFileReader(file.getPath(), 64)) {
+            write(file, TCP);
+            assertEquals(2, TcpSocketTable.countSockets(reader.read(), ADB_PORT,
+                    TcpSocketTable.STATE_ESTABLISHED));
+            write(file, HEADER);
+            assertEquals(0, TcpSocketTable.countSockets(reader.read(), ADB_PORT,
+                    TcpSocketTable.STATE_ESTABLISHED));
+        } finally {
+            file.delete();
+        }
+    }
+}
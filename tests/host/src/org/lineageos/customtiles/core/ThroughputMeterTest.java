@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ThroughputMeterTest {
+
+    @Test
+    public void unknownUntilTwoSamples() {
+        final ThroughputMeter meter = new ThroughputMeter(0.5f);
+        assertEquals(ThroughputMeter.RATE_UNKNOWN, meter.getRate());
+        meter.add(1000, 0);
+        assertEquals(ThroughputMeter.RATE_UNKNOWN, meter.getRate());
+        meter.add(3000, 1000);
+        assertEquals(2000, meter.getRate());
+    }
+
+    @Test
+    public void smoothsRate() {
+        final ThroughputMeter meter = new ThroughputMeter(0.5f);
+        meter.add(0, 0);
+        meter.add(4000, 1000);
+        meter.add(4000, 2000);
+        assertEquals(2000, meter.getRate());
+    }
+
+    @Test
+    public void counterResetStartsNewBaseline() {
+        final ThroughputMeter meter = new ThroughputMeter(1f);
+        meter.add(10000, 0);
+        meter.add(20000, 1000);
+        meter.add(500, 2000);
+        assertEquals(10000, meter.getRate());
+        meter.add(1500, 3000);
+        assertEquals(1000, meter.getRate());
+    }
+
+    @Test
+    public void ignoresUnreadableCounter() {
+        final ThroughputMeter meter = new ThroughputMeter(1f);
+        meter.add(0, 0);
+        meter.add(-1, 1000);
+        meter.add(2000, 2000);
+        assertEquals(1000, meter.getRate());
+    }
+
+    @Test
+    public void resetForgetsRateAndBaseline() {
+        final ThroughputMeter meter = new ThroughputMeter(1f);
+        meter.add(0, 0);
+        meter.add(1000, 1000);
+        meter.reset();
+        assertEquals(ThroughputMeter.RATE_UNKNOWN, meter.getRate());
+        meter.add(50000, 2000);
+        assertEquals(ThroughputMeter.RATE_UNKNOWN, meter.getRate());
+        meter.add(53000, 3000);
+        assertEquals(3000, meter.getRate());
+    }
+
+    @Test
+    public void ignoresSampleWithoutElapsedTime() {
+        final ThroughputMeter meter = new ThroughputMeter(1f);
+        meter.add(0, 0);
+        meter.add(1000, 0);
+        assertEquals(ThroughputMeter.RATE_UNKNOWN, meter.getRate());
+        meter.add(3000, 1000);
+        assertEquals(2000, meter.getRate());
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2017 The LineageOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lineageos.customtiles.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class UsbTetherMatcherTest {
+
+    private String[] mRegexs;
+    private int mFetches;
+    private UsbTetherMatcher mMatcher;
+
+    @Before
+    public void setUp() {
+        mRegexs = new String[] { "usb\\d", "rndis\\d" };
+        mFetches = 0;
+        mMatcher = new UsbTetherMatcher(new UsbTetherMatcher.RegexSource() {
+            @Override
+            public String[] getTetherableUsbRegexs() {
+                mFetches++;
+                return mRegexs;
+            }
+        });
+    }
+
+    @Test
+    public void matchesAnyRegex() {
+        assertTrue(mMatcher.isUsbIface("usb0"));
+        assertTrue(mMatcher.isUsbIface("rndis0"));
+        assertFalse(mMatcher.isUsbIface("wlan0"));
+        assertFalse(mMatcher.isUsbIface("usb10"));
+    }
+
+    @Test
+    public void findsFirstUsbIface() {
+        assertEquals("rndis0", mMatcher.findUsbIface(Arrays.asList("wlan0", "rndis0", "usb0")));
+        assertNull(mMatcher.findUsbIface(Collections.singletonList("wlan0")));
+        assertNull(mMatcher.findUsbIface(null));
+    }
+
+    @Test
+    public void fetchesRegexsOnce() {
+        for (int i = 0; i < 100; i++) {
+            mMatcher.isUsbIface("usb0");
+            mMatcher.isUsbIface("wlan" + (i % 4));
+        }
+        assertEquals(1, mFetches);
+    }
+
+    @Test
+    public void invalidateRefetchesRegexs() {
+        assertFalse(mMatcher.isUsbIface("ncm0"));
+        mRegexs = new String[] { "ncm\\d" };
+        mMatcher.invalidate();
+        assertTrue(mMatcher.isUsbIface("ncm0"));
+        assertFalse(mMatcher.isUsbIface("usb0"));
+        assertEquals(2, mFetches);
+    }
+
+    @Test
+    public void noRegexsMatchNothing() {
+        mRegexs = null;
+        assertFalse(mMatcher.isUsbIface("usb0"));
+        mRegexs = new String[0];
+        mMatcher.invalidate();
+        assertFalse(mMatcher.isUsbIface(""));
+    }
+}